@@ -1,9 +1,10 @@
 package com.getupside.dw.auth;
 
 import com.getupside.dw.auth.dao.PeerDAO;
+import com.getupside.dw.auth.model.AllowedPeers;
 import com.getupside.dw.auth.model.Peer;
+import com.google.common.collect.ImmutableSetMultimap;
 import io.dropwizard.auth.AuthenticationException;
-import io.dropwizard.auth.Authenticator;
 import io.dropwizard.auth.basic.BasicCredentials;
 
 import java.lang.invoke.MethodHandles;
@@ -16,21 +17,33 @@ import org.slf4j.LoggerFactory;
 /**
  * <p>Implementation of a DropWizard Authenticator interface that forces the our callers to authenticate with us via Basic
  * Auth.</p>
+ * <p>Allowed peers are indexed by username.  Calling {@code reload} swaps in a fresh index from the PeerDAO and reports
+ * which usernames were affected, so any cache in front of this authenticator can invalidate just those.</p>
  */
-public class AllowedPeerAuthenticator implements Authenticator<BasicCredentials, Peer> {
+public class AllowedPeerAuthenticator implements ReloadableAuthenticator<BasicCredentials> {
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-    private final Set<Peer> allPeers;
+    private final PeerDAO peerDAO;
+    private volatile ImmutableSetMultimap<String, Peer> peersByName;
 
     public AllowedPeerAuthenticator(PeerDAO peerDAO) {
-        this.allPeers = peerDAO.findAll();
-        LOGGER.info("Constructed Authenticator with {} allowed peers", this.allPeers.size());
+        this(peerDAO, peerDAO.findAll());
+    }
+
+    /**
+     * @param peerDAO Where the allowed peers are fetched from on {@code reload}
+     * @param peers The allowed peers to start with, already fetched from {@code peerDAO}
+     */
+    public AllowedPeerAuthenticator(PeerDAO peerDAO, Set<Peer> peers) {
+        this.peerDAO = peerDAO;
+        this.peersByName = index(peers);
+        LOGGER.info("Constructed Authenticator with {} allowed peers", this.peersByName.size());
     }
 
     @Override
     public Optional<Peer> authenticate(BasicCredentials credentials) throws AuthenticationException {
         Peer peer = new Peer(credentials.getUsername(), credentials.getPassword());
 
-        if (this.allPeers.contains(peer)) {
+        if (this.peersByName.containsEntry(credentials.getUsername(), peer)) {
             LOGGER.debug("{} authenticated and allowed to request service", credentials.getUsername());
             return Optional.of(peer);
         }
@@ -40,4 +53,39 @@ public class AllowedPeerAuthenticator implements Authenticator<BasicCredentials,
         return Optional.empty();
     }
 
+    /**
+     * Fetches all allowed peers from the PeerDAO again and replaces the current ones with them.  Requests being
+     * authenticated concurrently see either the old or the new peers, never a mix.
+     *
+     * @return The usernames that were added, removed or had their password(s) changed by this reload
+     */
+    @Override
+    public PeerIndexDiff reload() {
+        return reload(this.peerDAO.findAll());
+    }
+
+    @Override
+    public PeerIndexDiff reload(AllowedPeers allowedPeers) {
+        return reload(allowedPeers.getPeers());
+    }
+
+    private synchronized PeerIndexDiff reload(Set<Peer> peers) {
+        ImmutableSetMultimap<String, Peer> current = this.peersByName;
+        ImmutableSetMultimap<String, Peer> updated = index(peers);
+        PeerIndexDiff diff = PeerIndexDiff.between(current, updated);
+
+        if (!diff.isEmpty()) {
+            this.peersByName = updated;
+            LOGGER.info("Reloaded Authenticator with {} allowed peers: {}", updated.size(), diff);
+        }
+        return diff;
+    }
+
+    private static ImmutableSetMultimap<String, Peer> index(Set<Peer> peers) {
+        ImmutableSetMultimap.Builder<String, Peer> builder = ImmutableSetMultimap.builder();
+        for (Peer peer : peers) {
+            builder.put(peer.getName(), peer);
+        }
+        return builder.build();
+    }
 }
@@ -0,0 +1,168 @@
+package com.getupside.dw.auth;
+
+import com.getupside.dw.auth.dao.AWSSecretsManagerPeerDAO;
+import com.getupside.dw.auth.dao.PeerDAO;
+import com.getupside.dw.auth.model.AllowedPeers;
+import com.getupside.dw.auth.model.Peer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.hash.Hashing;
+import io.dropwizard.auth.AuthenticationException;
+
+import java.lang.invoke.MethodHandles;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * <p>Implementation of a DropWizard Authenticator interface that maps the client certificate a caller presented during
+ * the TLS handshake to a Peer, by way of an index of certificate fingerprints loaded up front.</p>
+ * <p>The outcome of a lookup is remembered per TLS session, so further requests on a keep-alive connection (or a resumed
+ * session) don't hash the certificate again.  A remembered outcome is only reused for the certificate it was looked up
+ * for, and callers whose container doesn't expose a session id are looked up every time.  Peers authenticated this way
+ * have a null password.</p>
+ * <p>Calling {@code reload} swaps in a fresh index from the PeerDAO.  Remembered outcomes are tied to the index they
+ * were looked up in, so none survive a reload, not even one a concurrent lookup finishes remembering afterwards.</p>
+ */
+public class AllowedPeerCertificateAuthenticator implements ReloadableAuthenticator<ClientCertificateCredentials> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private final PeerDAO peerDAO;
+    private final Cache<String, SessionPeer> peersBySession;
+    private volatile ImmutableMap<String, Peer> peersByFingerprint;
+
+    public AllowedPeerCertificateAuthenticator(PeerDAO peerDAO, CacheBuilderSpec sessionCachePolicy) {
+        this(peerDAO, peerDAO.findAllCertificateFingerprints(), sessionCachePolicy);
+    }
+
+    /**
+     * @param peerDAO Where the fingerprints are fetched from on {@code reload}
+     * @param fingerprints The fingerprints of the allowed client certificates to start with, already fetched from
+     * {@code peerDAO}
+     * @param sessionCachePolicy Bounds the per-TLS-session cache of outcomes
+     */
+    public AllowedPeerCertificateAuthenticator(PeerDAO peerDAO, Map<String, String> fingerprints,
+                                               CacheBuilderSpec sessionCachePolicy) {
+        this.peerDAO = peerDAO;
+        this.peersByFingerprint = index(fingerprints);
+        this.peersBySession = CacheBuilder.from(sessionCachePolicy).build();
+        LOGGER.info("Constructed Authenticator with {} allowed client certificates", this.peersByFingerprint.size());
+    }
+
+    @Override
+    public Optional<Peer> authenticate(ClientCertificateCredentials credentials) throws AuthenticationException {
+        String sessionId = credentials.getSessionId();
+        X509Certificate certificate = credentials.getCertificate();
+        // Some TLS stacks report an empty id for sessions they won't resume, which would lump every caller together
+        if (sessionId == null || sessionId.isEmpty()) {
+            return lookup(this.peersByFingerprint, certificate);
+        }
+
+        ImmutableMap<String, Peer> index = this.peersByFingerprint;
+        SessionPeer cached = this.peersBySession.getIfPresent(sessionId);
+        if (cached != null && cached.index == index && cached.presented(certificate)) {
+            return cached.peer;
+        }
+        Optional<Peer> peer = lookup(index, certificate);
+        this.peersBySession.put(sessionId, new SessionPeer(index, certificate, peer));
+        return peer;
+    }
+
+    /**
+     * Fetches all allowed certificate fingerprints from the PeerDAO again, replaces the current ones with them and
+     * forgets the outcomes remembered per TLS session.
+     *
+     * @return The usernames whose certificates were added, removed or changed by this reload
+     */
+    @Override
+    public PeerIndexDiff reload() {
+        return reload(this.peerDAO.findAllCertificateFingerprints());
+    }
+
+    @Override
+    public PeerIndexDiff reload(AllowedPeers allowedPeers) {
+        return reload(allowedPeers.getCertificateFingerprints());
+    }
+
+    private synchronized PeerIndexDiff reload(Map<String, String> fingerprints) {
+        ImmutableMap<String, Peer> current = this.peersByFingerprint;
+        ImmutableMap<String, Peer> updated = index(fingerprints);
+        PeerIndexDiff diff = PeerIndexDiff.between(fingerprintsByName(current), fingerprintsByName(updated));
+
+        if (!diff.isEmpty()) {
+            this.peersByFingerprint = updated;
+            // Outcomes remembered from the old index are never reused anyway, since they're tied to it
+            this.peersBySession.invalidateAll();
+            LOGGER.info("Reloaded Authenticator with {} allowed client certificates: {}", updated.size(), diff);
+        }
+        return diff;
+    }
+
+    private static Optional<Peer> lookup(Map<String, Peer> index, X509Certificate certificate)
+            throws AuthenticationException {
+        try {
+            Peer peer = index.get(AWSSecretsManagerPeerDAO.CERTIFICATE_FINGERPRINT_PREFIX
+                                      + sha256(certificate.getEncoded()));
+            if (peer == null) {
+                peer = index.get(AWSSecretsManagerPeerDAO.SPKI_FINGERPRINT_PREFIX
+                                     + sha256(certificate.getPublicKey().getEncoded()));
+            }
+
+            if (peer != null) {
+                LOGGER.debug("{} authenticated by client certificate {}", peer.getName(),
+                             certificate.getSubjectX500Principal());
+                return Optional.of(peer);
+            }
+            LOGGER.debug("Client certificate {} is not known in our list of allowed peers",
+                         certificate.getSubjectX500Principal());
+            return Optional.empty();
+        }
+        catch (CertificateEncodingException e) {
+            throw new AuthenticationException(e);
+        }
+    }
+
+    private static ImmutableMap<String, Peer> index(Map<String, String> fingerprints) {
+        ImmutableMap.Builder<String, Peer> builder = ImmutableMap.builder();
+        fingerprints.forEach((fingerprint, username) -> {
+            builder.put(fingerprint, new Peer(username, null));
+        });
+        return builder.build();
+    }
+
+    private static ImmutableSetMultimap<String, String> fingerprintsByName(Map<String, Peer> peersByFingerprint) {
+        ImmutableSetMultimap.Builder<String, String> builder = ImmutableSetMultimap.builder();
+        peersByFingerprint.forEach((fingerprint, peer) -> builder.put(peer.getName(), fingerprint));
+        return builder.build();
+    }
+
+    private static String sha256(byte[] encoded) {
+        return Hashing.sha256().hashBytes(encoded).toString();
+    }
+
+    /**
+     * The outcome of looking up the certificate presented on a TLS session in one version of the index
+     */
+    private static class SessionPeer {
+        private final Map<String, Peer> index;
+        private final X509Certificate certificate;
+        private final Optional<Peer> peer;
+
+        SessionPeer(Map<String, Peer> index, X509Certificate certificate, Optional<Peer> peer) {
+            this.index = index;
+            this.certificate = certificate;
+            this.peer = peer;
+        }
+
+        boolean presented(X509Certificate other) {
+            // Containers hand back the same instance for every request on a session; equals compares the encodings
+            return this.certificate == other || this.certificate.equals(other);
+        }
+    }
+}
@@ -11,24 +11,44 @@ import com.amazonaws.util.StringUtils;
 import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.getupside.dw.auth.dao.AWSSecretsManagerPeerDAO;
+import com.getupside.dw.auth.dao.PeerDAO;
 import com.google.common.cache.CacheBuilderSpec;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.getupside.dw.auth.metrics.PhaseTimer;
+import com.getupside.dw.auth.metrics.TimedAuthFilter;
+import com.getupside.dw.auth.metrics.TimedAuthenticator;
+import com.getupside.dw.auth.metrics.TimedAuthorizer;
+import com.getupside.dw.auth.model.AllowedPeers;
 import com.getupside.dw.auth.model.Peer;
+import com.getupside.dw.auth.quota.PeerQuotaConfiguration;
+import com.getupside.dw.auth.quota.PeerQuotaFilter;
+import com.getupside.dw.auth.shared.SharedPeerAuthenticator;
+import com.getupside.dw.auth.shared.SharedPeerStore;
+import com.getupside.dw.auth.shared.SharedPeerStoreConfiguration;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 import io.dropwizard.auth.AuthDynamicFeature;
+import io.dropwizard.auth.AuthFilter;
 import io.dropwizard.auth.AuthValueFactoryProvider;
 import io.dropwizard.auth.Authenticator;
 import io.dropwizard.auth.Authorizer;
 import io.dropwizard.auth.CachingAuthenticator;
+import io.dropwizard.auth.chained.ChainedAuthFilter;
 import io.dropwizard.auth.PermitAllAuthorizer;
 import io.dropwizard.auth.basic.BasicCredentialAuthFilter;
 import io.dropwizard.auth.basic.BasicCredentials;
 import io.dropwizard.setup.Environment;
 import org.glassfish.jersey.server.filter.RolesAllowedDynamicFeature;
 
+import javax.ws.rs.container.ContainerRequestFilter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 
 
 /**
@@ -61,6 +81,48 @@ public class AllowedPeerConfiguration {
     @JsonProperty("secretCoordinates")
     private String secretCoordinates;
 
+    /**
+     * If true, callers may also authenticate with a TLS client certificate whose fingerprint is listed in the
+     * secretCoordinates, e.g. { "echo-client": "sha256:AB:12:..." }.  BasicAuth keeps working alongside it.
+     */
+    @JsonProperty("clientCertificates")
+    private boolean clientCertificates = false;
+
+    @JsonProperty("clientCertificateCachePolicy")
+    private CacheBuilderSpec clientCertificateCachePolicy =
+        CacheBuilderSpec.parse("maximumSize=10000, expireAfterAccess=10m");
+
+    /**
+     * The fraction of requests, between 0 and 1, whose authentication phases are timed into the MetricRegistry.  At the
+     * default of 0 no timing code is installed at all.
+     */
+    @JsonProperty("timingSampleRate")
+    private double timingSampleRate = 0;
+
+    /**
+     * Per-Peer quotas, by username, e.g.
+     * quotas:
+     *   batch-client:
+     *     requestsPerSecond: 20
+     *     maxConcurrentRequests: 4
+     */
+    @JsonProperty("quotas")
+    private Map<String, PeerQuotaConfiguration> quotas = Collections.emptyMap();
+
+    /**
+     * The quota of every Peer not named in {@code quotas}.  If not set, those Peers are not limited.
+     */
+    @JsonProperty("defaultQuota")
+    private PeerQuotaConfiguration defaultQuota;
+
+    /**
+     * If set, one JVM per host fetches the peers and shares them with every other JVM using the same sharedStore, through
+     * a memory-mapped file.  See {@code SharedPeerStore}.  Only the BasicAuth peers are shared, so it can't be combined
+     * with {@code clientCertificates}.
+     */
+    @JsonProperty("sharedStore")
+    private SharedPeerStoreConfiguration sharedStore;
+
     // Allow setting this client to support testing
     private AWSSecretsManager awsSecretsManager;
 
@@ -94,6 +156,94 @@ public class AllowedPeerConfiguration {
         this.cachePolicy = cachePolicy;
     }
 
+    /**
+     * @return True if callers may authenticate with a TLS client certificate as well as with BasicAuth
+     */
+    public boolean isClientCertificates() {
+        return clientCertificates;
+    }
+
+    /**
+     * @param clientCertificates True to let callers authenticate with a TLS client certificate as well as with
+     * BasicAuth.  The enclosing service also needs an https connector that requests client certificates.
+     */
+    public void setClientCertificates(boolean clientCertificates) {
+        this.clientCertificates = clientCertificates;
+    }
+
+    /**
+     * @return A String conforming to Guava's CacheBuilderSpec that bounds the per-TLS-session cache of Peers
+     * authenticated by client certificate
+     */
+    public CacheBuilderSpec getClientCertificateCachePolicy() {
+        return clientCertificateCachePolicy;
+    }
+
+    /**
+     * @param clientCertificateCachePolicy A String conforming to Guava's CacheBuilderSpec that bounds the
+     * per-TLS-session cache of Peers authenticated by client certificate
+     */
+    public void setClientCertificateCachePolicy(CacheBuilderSpec clientCertificateCachePolicy) {
+        this.clientCertificateCachePolicy = clientCertificateCachePolicy;
+    }
+
+    /**
+     * @return The fraction of requests whose authentication phases are timed, or 0 if timing is off
+     */
+    public double getTimingSampleRate() {
+        return timingSampleRate;
+    }
+
+    /**
+     * @param timingSampleRate The fraction of requests, between 0 and 1, whose authentication phases are timed into
+     * Timers named "com.getupside.dw.auth.phase.*".  0 turns timing off.
+     */
+    public void setTimingSampleRate(double timingSampleRate) {
+        this.timingSampleRate = timingSampleRate;
+    }
+
+    /**
+     * @return Per-Peer quotas, by username
+     */
+    public Map<String, PeerQuotaConfiguration> getQuotas() {
+        return quotas;
+    }
+
+    /**
+     * @param quotas Per-Peer quotas, by username, enforced right after authentication
+     */
+    public void setQuotas(Map<String, PeerQuotaConfiguration> quotas) {
+        this.quotas = quotas;
+    }
+
+    /**
+     * @return The quota of every Peer not named in {@code quotas}, or null if they're not limited
+     */
+    public PeerQuotaConfiguration getDefaultQuota() {
+        return defaultQuota;
+    }
+
+    /**
+     * @param defaultQuota The quota of every Peer not named in {@code quotas}, or null to leave them unlimited
+     */
+    public void setDefaultQuota(PeerQuotaConfiguration defaultQuota) {
+        this.defaultQuota = defaultQuota;
+    }
+
+    /**
+     * @return How the peers are shared with other JVMs on the host, or null if they aren't
+     */
+    public SharedPeerStoreConfiguration getSharedStore() {
+        return sharedStore;
+    }
+
+    /**
+     * @param sharedStore How the peers are shared with other JVMs on the host, or null to not share them
+     */
+    public void setSharedStore(SharedPeerStoreConfiguration sharedStore) {
+        this.sharedStore = sharedStore;
+    }
+
     /**
      * @return The name(s) of the secret coordinate(s) to lookup in AWS's SecretManager.  Note that an AWS secret is
      * itself a Json block of key,value pairs, so multiple secret keys may be referenced by requesting
@@ -123,12 +273,60 @@ public class AllowedPeerConfiguration {
     /**
      * <p>An authenticator that uses AWS Secrets Manager to fetch the BasicAuth usernames and passwords the enclosing
      * service will permit access.</p>
+     * <p>{@code registerAuthenticator} doesn't call this (or {@code createCachingAuthenticator}), so overriding it
+     * doesn't change what gets registered.</p>
      * @return An Authenticator appropriate for registering with Jersey as described
      * https://dropwizard.github.io/dropwizard/manual/auth.html
      */
     public Authenticator<BasicCredentials, Peer> createAuthenticator() {
-        return new AllowedPeerAuthenticator(new AWSSecretsManagerPeerDAO(getAWSSecretsManager(),
-                                                                         getSecretCoordinates()));
+        return createAllowedPeerAuthenticator();
+    }
+
+    /**
+     * @return The same Authenticator as {@code createAuthenticator}, typed so that its peers can be reloaded
+     */
+    public AllowedPeerAuthenticator createAllowedPeerAuthenticator() {
+        return new AllowedPeerAuthenticator(createPeerDAO());
+    }
+
+    /**
+     * @return An authenticator that maps a caller's TLS client certificate to a Peer using the certificate fingerprints
+     * found in this configuration's secret coordinates
+     */
+    public AllowedPeerCertificateAuthenticator createCertificateAuthenticator() {
+        checkNotNull(this.clientCertificateCachePolicy, "Illegal call to createCertificateAuthenticator() when the "
+                + "configuration object's clientCertificateCachePolicy attribute is null");
+        return new AllowedPeerCertificateAuthenticator(new AWSSecretsManagerPeerDAO(getAWSSecretsManager(),
+                                                                                    getSecretCoordinates(), true),
+                                                       this.clientCertificateCachePolicy);
+    }
+
+    /**
+     * @return A store sharing the peers found in this configuration's secret coordinates with other JVMs on the host.
+     * It must be started (e.g. by registering it with the Dropwizard lifecycle) before it's used.
+     */
+    public SharedPeerStore createSharedPeerStore() {
+        checkNotNull(this.sharedStore, "Illegal call to createSharedPeerStore() when the configuration object's "
+                + "sharedStore attribute is null");
+        checkNotNull(this.sharedStore.getDirectory(), "Illegal call to createSharedPeerStore() when the configuration "
+                + "object's sharedStore.directory attribute is null; set it to a directory only this user can write");
+        String name = this.sharedStore.getName();
+        if (name == null) {
+            name = "peers-" + Hashing.sha256()
+                .hashString(String.join(",", getSecretCoordinates()), StandardCharsets.UTF_8)
+                .toString()
+                .substring(0, 16);
+        }
+        return new SharedPeerStore(createPeerDAO(),
+                                   Paths.get(this.sharedStore.getDirectory()),
+                                   name,
+                                   this.sharedStore.getElectionInterval().toMilliseconds(),
+                                   this.sharedStore.getStartupTimeout().toMilliseconds());
+    }
+
+    // Certificate fingerprints are only told apart from passwords when clientCertificates is set
+    private PeerDAO createPeerDAO() {
+        return new AWSSecretsManagerPeerDAO(getAWSSecretsManager(), getSecretCoordinates(), this.clientCertificates);
     }
 
     private AWSSecretsManager getAWSSecretsManager() {
@@ -160,7 +358,8 @@ public class AllowedPeerConfiguration {
     /**
      * @param metrics A metrics registry
      * @return The Authenticator you'd get by calling {@code createAuthenticator} directly, but wrapped in the Dropwizard
-     * CachingAuthenticator proxy with this configuration object's {@code cachePolicy} applied to it.
+     * CachingAuthenticator proxy with this configuration object's {@code cachePolicy} applied to it.  Not called by
+     * {@code registerAuthenticator}.
      */
     public CachingAuthenticator<BasicCredentials, Peer> createCachingAuthenticator(MetricRegistry metrics) {
         checkNotNull(this.cachePolicy, "Illegal call to createCachingAuthenticator() when the configuration "
@@ -169,7 +368,9 @@ public class AllowedPeerConfiguration {
     }
 
     /**
-     * This method registers the authenticator configured in this Configuration class with Jersey with a PermitAllAuthorizer
+     * This method registers the authenticator configured in this Configuration class with Jersey with a PermitAllAuthorizer,
+     * and registers a {@code ReloadAllowedPeersTask} admin task that reloads its peers (and client certificates) on
+     * demand
      * @param environment A DropWizard environment
      */
     public void registerAuthenticator(Environment environment) {
@@ -177,6 +378,12 @@ public class AllowedPeerConfiguration {
     }
 
     /**
+     * If {@code clientCertificates} is set, requests are first checked for an allowed TLS client certificate and only
+     * fall back to BasicAuth when they don't have one.  If {@code timingSampleRate} is set, the auth filter, cache,
+     * peer lookup and authorizer are each wrapped to time that fraction of requests.  If any {@code quotas} or a
+     * {@code defaultQuota} are set, authenticated requests over their Peer's quota are answered with 429.  If a
+     * {@code sharedStore} is set, BasicAuth callers are looked up in the peers shared by the JVMs on this host; it
+     * can't be combined with {@code clientCertificates}.
      *
      * @param environment The Dropwizard environment
      * @param authorizer A specific authorizer to use instead of the default PermitAllAuthorizer.  See
@@ -184,20 +391,91 @@ public class AllowedPeerConfiguration {
      */
     public void registerAuthenticator(Environment environment, Authorizer<Peer> authorizer) {
         checkNotNull(environment, "Illegal call to registerAuthenticator with a null Environment object");
-        Authenticator<BasicCredentials, Peer> authenticator;
-        if (this.cachePolicy != null) {
-            authenticator = createCachingAuthenticator(environment.metrics());
+        checkArgument(this.timingSampleRate >= 0 && this.timingSampleRate <= 1,
+                      "timingSampleRate must be between 0 and 1 but was %s", this.timingSampleRate);
+        checkNotNull(this.quotas, "Illegal call to registerAuthenticator() when the configuration object's quotas "
+                + "attribute is null; leave it out to set no per-Peer quotas");
+        // Certificate fingerprints aren't in the shared index, so every JVM would still fetch them for itself
+        checkArgument(this.sharedStore == null || !this.clientCertificates, "sharedStore can't be combined with "
+                + "clientCertificates: only BasicAuth peers are shared between JVMs");
+        MetricRegistry metrics = environment.metrics();
+        SharedPeerStore sharedPeerStore = null;
+        AllowedPeerCertificateAuthenticator certificateAuthenticator = null;
+        PeerDAO certificatePeerDAO = null;
+        ReloadableAuthenticator<BasicCredentials> peerAuthenticator;
+        if (this.sharedStore != null) {
+            sharedPeerStore = createSharedPeerStore();
+            environment.lifecycle().manage(sharedPeerStore);
+            peerAuthenticator = new SharedPeerAuthenticator(sharedPeerStore);
+        }
+        else if (this.clientCertificates) {
+            // Index both the passwords and the certificate fingerprints from a single read of the secret coordinates
+            checkNotNull(this.clientCertificateCachePolicy, "Illegal call to registerAuthenticator() with "
+                    + "clientCertificates when the configuration object's clientCertificateCachePolicy is null");
+            certificatePeerDAO = createPeerDAO();
+            AllowedPeers allowedPeers = certificatePeerDAO.findAllowedPeers();
+            peerAuthenticator = new AllowedPeerAuthenticator(certificatePeerDAO, allowedPeers.getPeers());
+            certificateAuthenticator = new AllowedPeerCertificateAuthenticator(
+                certificatePeerDAO, allowedPeers.getCertificateFingerprints(), this.clientCertificateCachePolicy);
         }
         else {
-            authenticator = createAuthenticator();
+            peerAuthenticator = createAllowedPeerAuthenticator();
+        }
+        DrainingCachingAuthenticator<BasicCredentials> cachingAuthenticator = null;
+        Authenticator<BasicCredentials, Peer> authenticator = timed(peerAuthenticator, "probe", metrics);
+        if (this.cachePolicy != null) {
+            cachingAuthenticator = new DrainingCachingAuthenticator<>(
+                new CachingAuthenticator<>(metrics, authenticator, this.cachePolicy));
+            authenticator = timed(cachingAuthenticator, "cache", metrics);
+            if (sharedPeerStore != null) {
+                // Another JVM published new peers; we don't know which changed
+                DrainingCachingAuthenticator<BasicCredentials> cache = cachingAuthenticator;
+                sharedPeerStore.addVersionListener(() -> cache.invalidateAll(credentials -> true));
+            }
+        }
+        Authorizer<Peer> timedAuthorizer = isTimed()
+            ? new TimedAuthorizer<>(authorizer, PhaseTimer.create(metrics, "authorize", this.timingSampleRate))
+            : authorizer;
+        AuthFilter<BasicCredentials, Peer> basicAuthFilter = new BasicCredentialAuthFilter.Builder<Peer>()
+            .setAuthenticator(authenticator)
+            .setAuthorizer(timedAuthorizer)
+            .setRealm(this.realm)
+            .buildAuthFilter();
+        ContainerRequestFilter authFilter = basicAuthFilter;
+        if (this.clientCertificates) {
+            // The certificate filter answers with the same challenge as the BasicAuth one, so a caller failing both
+            // still gets the usual WWW-Authenticate: Basic response
+            AuthFilter<ClientCertificateCredentials, Peer> certificateAuthFilter =
+                new ClientCertificateAuthFilter.Builder<Peer>()
+                    .setAuthenticator(timed(certificateAuthenticator, "certificate", metrics))
+                    .setAuthorizer(timedAuthorizer)
+                    .setPrefix("Basic")
+                    .setRealm(this.realm)
+                    .buildAuthFilter();
+            authFilter = new ChainedAuthFilter<>(ImmutableList.of(certificateAuthFilter, basicAuthFilter));
+        }
+        if (isTimed()) {
+            authFilter = new TimedAuthFilter(authFilter, PhaseTimer.create(metrics, "filter", this.timingSampleRate));
+        }
+        environment.jersey().register(new AuthDynamicFeature(authFilter));
+        if (!this.quotas.isEmpty() || this.defaultQuota != null) {
+            environment.jersey().register(new PeerQuotaFilter(this.quotas, this.defaultQuota, metrics));
         }
-        environment.jersey().register(new AuthDynamicFeature(
-            new BasicCredentialAuthFilter.Builder<Peer>()
-                .setAuthenticator(authenticator)
-                .setAuthorizer(authorizer)
-                .setRealm(this.realm)
-                .buildAuthFilter()));
         environment.jersey().register(RolesAllowedDynamicFeature.class);
         environment.jersey().register(new AuthValueFactoryProvider.Binder<>(Peer.class));
+        environment.admin().addTask(new ReloadAllowedPeersTask(peerAuthenticator, cachingAuthenticator,
+                                                               certificateAuthenticator, certificatePeerDAO));
+    }
+
+    private boolean isTimed() {
+        return this.timingSampleRate > 0;
+    }
+
+    private <C> Authenticator<C, Peer> timed(Authenticator<C, Peer> authenticator, String phase,
+                                             MetricRegistry metrics) {
+        if (!isTimed()) {
+            return authenticator;
+        }
+        return new TimedAuthenticator<>(authenticator, PhaseTimer.create(metrics, phase, this.timingSampleRate));
     }
 }
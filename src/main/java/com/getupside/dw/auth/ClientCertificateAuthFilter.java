@@ -0,0 +1,70 @@
+package com.getupside.dw.auth;
+
+import io.dropwizard.auth.AuthFilter;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.SecurityContext;
+import java.io.IOException;
+import java.security.Principal;
+import java.security.cert.X509Certificate;
+
+
+/**
+ * <p>An AuthFilter that authenticates a request by the client certificate presented during the TLS handshake, rather
+ * than by anything in the request itself.</p>
+ * <p>Verifying the certificate chain is left to the container (e.g. a Dropwizard https connector with
+ * {@code needClientAuth} or {@code wantClientAuth} and a trust store), which exposes the verified chain and TLS session
+ * id as the standard servlet request attributes read here.  Requests without a client certificate are rejected, so when
+ * registering this alongside BasicAuth chain the two with a {@code ChainedAuthFilter}.</p>
+ *
+ * @param <P> the principal type
+ */
+@Priority(Priorities.AUTHENTICATION)
+public class ClientCertificateAuthFilter<P extends Principal> extends AuthFilter<ClientCertificateCredentials, P> {
+
+    public static final String CERTIFICATE_ATTRIBUTE = "javax.servlet.request.X509Certificate";
+    public static final String SSL_SESSION_ID_ATTRIBUTE = "javax.servlet.request.ssl_session_id";
+
+    private ClientCertificateAuthFilter() {
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        if (!authenticate(requestContext, getCredentials(requestContext), SecurityContext.CLIENT_CERT_AUTH)) {
+            throw new WebApplicationException(unauthorizedHandler.buildResponse(prefix, realm));
+        }
+    }
+
+    /**
+     * @param requestContext The request to pull the client certificate from
+     * @return The credentials presented on the request's TLS connection, or null if there's no client certificate
+     */
+    private ClientCertificateCredentials getCredentials(ContainerRequestContext requestContext) {
+        Object chain = requestContext.getProperty(CERTIFICATE_ATTRIBUTE);
+        if (!(chain instanceof X509Certificate[]) || ((X509Certificate[]) chain).length == 0) {
+            return null;
+        }
+
+        Object sessionId = requestContext.getProperty(SSL_SESSION_ID_ATTRIBUTE);
+        return new ClientCertificateCredentials(((X509Certificate[]) chain)[0],
+                                                sessionId instanceof String ? (String) sessionId : null);
+    }
+
+    /**
+     * Builder for {@link ClientCertificateAuthFilter}.
+     * <p>An {@link io.dropwizard.auth.Authenticator} must be provided during the building process.</p>
+     *
+     * @param <P> the principal
+     */
+    public static class Builder<P extends Principal>
+            extends AuthFilterBuilder<ClientCertificateCredentials, P, ClientCertificateAuthFilter<P>> {
+
+        @Override
+        protected ClientCertificateAuthFilter<P> newInstance() {
+            return new ClientCertificateAuthFilter<>();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.getupside.dw.auth;
+
+import java.security.cert.X509Certificate;
+import java.util.Objects;
+
+/**
+ * <p>The credentials a caller presents by way of a mutual TLS handshake: the client certificate the container already
+ * verified, plus the id of the TLS session it was presented on (if the container exposes one).</p>
+ */
+public class ClientCertificateCredentials {
+    private final X509Certificate certificate;
+    private final String sessionId;
+
+    public ClientCertificateCredentials(X509Certificate certificate, String sessionId) {
+        this.certificate = certificate;
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * @return The end-entity certificate the caller presented
+     */
+    public X509Certificate getCertificate() {
+        return this.certificate;
+    }
+
+    /**
+     * @return The id of the TLS session the certificate was presented on, or null if it isn't known
+     */
+    public String getSessionId() {
+        return this.sessionId;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ClientCertificateCredentials{subject=%s, sessionId=%s}",
+                             this.certificate.getSubjectX500Principal(), this.sessionId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.certificate, this.sessionId);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final ClientCertificateCredentials other = (ClientCertificateCredentials) obj;
+        return Objects.equals(this.certificate, other.certificate) && Objects.equals(this.sessionId, other.sessionId);
+    }
+}
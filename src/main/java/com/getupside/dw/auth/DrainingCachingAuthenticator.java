@@ -0,0 +1,117 @@
+package com.getupside.dw.auth;
+
+import com.getupside.dw.auth.model.Peer;
+import io.dropwizard.auth.AuthenticationException;
+import io.dropwizard.auth.Authenticator;
+import io.dropwizard.auth.CachingAuthenticator;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * <p>Sits in front of a CachingAuthenticator and keeps count of the calls going through it, so that its entries can be
+ * invalidated reliably after the allowed peers are reloaded.</p>
+ * <p>Invalidating a CachingAuthenticator only reaches the entries already in it.  A lookup that checked the old peers
+ * before a reload but stores its outcome after the invalidation would otherwise keep a rotated-away password valid for
+ * as long as the cachePolicy keeps it.  {@code invalidateAll} therefore invalidates once right away, waits for every
+ * call that was under way to return, and invalidates again.</p>
+ * <p>Calls are counted on one of several stripes picked by thread, each on a cache line of its own, so that counting
+ * every authentication doesn't have all the request threads contending on one counter for the sake of a rare
+ * reload.</p>
+ *
+ * @param <C> the type of credentials
+ */
+public class DrainingCachingAuthenticator<C> implements Authenticator<C, Peer> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final long DRAIN_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final int STRIPES = Math.min(64, Integer.highestOneBit(
+        Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+    // 16 ints apart, so no two stripes share a 64 byte cache line
+    private static final int PADDING = 16;
+
+    private final CachingAuthenticator<C, Peer> cachingAuthenticator;
+    // Calls are counted against the current epoch, so that a drain only waits for those that started before it
+    private final AtomicIntegerArray inFlight = new AtomicIntegerArray(2 * STRIPES * PADDING);
+    private volatile int epoch;
+
+    public DrainingCachingAuthenticator(CachingAuthenticator<C, Peer> cachingAuthenticator) {
+        this.cachingAuthenticator = checkNotNull(cachingAuthenticator, "Must provide non-null cachingAuthenticator");
+    }
+
+    @Override
+    public Optional<Peer> authenticate(C credentials) throws AuthenticationException {
+        int slot = enter();
+        try {
+            return this.cachingAuthenticator.authenticate(credentials);
+        }
+        finally {
+            this.inFlight.decrementAndGet(slot);
+        }
+    }
+
+    /**
+     * Invalidates the cached credentials matching {@code predicate}, including any that a call under way is about to
+     * cache from peers that are no longer current.
+     */
+    public void invalidateAll(Predicate<? super C> predicate) {
+        this.cachingAuthenticator.invalidateAll(predicate);
+        try {
+            drain();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Interrupted waiting for authentications under way; some may have cached outdated peers");
+        }
+        this.cachingAuthenticator.invalidateAll(predicate);
+    }
+
+    /**
+     * @return The number of entries in the underlying cache
+     */
+    public long size() {
+        return this.cachingAuthenticator.size();
+    }
+
+    // Returns the slot this call is counted in
+    private int enter() {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        while (true) {
+            int epoch = this.epoch;
+            int slot = slot(epoch, stripe);
+            this.inFlight.incrementAndGet(slot);
+            // Re-check so a drain that flipped the epoch meanwhile either sees this call or it moves to the new epoch
+            if (this.epoch == epoch) {
+                return slot;
+            }
+            this.inFlight.decrementAndGet(slot);
+        }
+    }
+
+    private static int slot(int epoch, int stripe) {
+        return (epoch * STRIPES + stripe) * PADDING;
+    }
+
+    // Waits until every call that started before this one has returned
+    private synchronized void drain() throws InterruptedException {
+        int previous = this.epoch;
+        this.epoch = previous ^ 1;
+        // A call never moves between stripes, so each one only needs to be seen empty once
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            while (this.inFlight.get(slot(previous, stripe)) != 0) {
+                LockSupport.parkNanos(DRAIN_POLL_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.getupside.dw.auth;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+
+import java.util.Set;
+
+
+/**
+ * <p>The usernames that differ between two versions of the allowed peers, as computed on a reload.  A username is
+ * "changed" when it's allowed in both versions but with a different set of passwords (or certificates).</p>
+ */
+public class PeerIndexDiff {
+    private final Set<String> added;
+    private final Set<String> removed;
+    private final Set<String> changed;
+
+    PeerIndexDiff(Set<String> added, Set<String> removed, Set<String> changed) {
+        this.added = ImmutableSet.copyOf(added);
+        this.removed = ImmutableSet.copyOf(removed);
+        this.changed = ImmutableSet.copyOf(changed);
+    }
+
+    /**
+     * @param before The allowed peers (or whatever else they're allowed in by, e.g. certificate fingerprints), by
+     * username, before a reload
+     * @param after The same, after a reload
+     * @return What changed going from {@code before} to {@code after}
+     */
+    public static <V> PeerIndexDiff between(SetMultimap<String, V> before, SetMultimap<String, V> after) {
+        Set<String> changed = Sets.newHashSet();
+        for (String username : Sets.intersection(before.keySet(), after.keySet())) {
+            if (!before.get(username).equals(after.get(username))) {
+                changed.add(username);
+            }
+        }
+        return new PeerIndexDiff(Sets.difference(after.keySet(), before.keySet()),
+                                 Sets.difference(before.keySet(), after.keySet()),
+                                 changed);
+    }
+
+    public Set<String> getAdded() {
+        return this.added;
+    }
+
+    public Set<String> getRemoved() {
+        return this.removed;
+    }
+
+    public Set<String> getChanged() {
+        return this.changed;
+    }
+
+    /**
+     * @return Every username whose outcome of authentication may differ after the reload
+     */
+    public Set<String> getAffectedUsernames() {
+        return ImmutableSet.<String>builder().addAll(this.added).addAll(this.removed).addAll(this.changed).build();
+    }
+
+    public boolean isEmpty() {
+        return this.added.isEmpty() && this.removed.isEmpty() && this.changed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PeerIndexDiff{added=%s, removed=%s, changed=%s}", this.added, this.removed, this.changed);
+    }
+}
@@ -0,0 +1,112 @@
+package com.getupside.dw.auth;
+
+import com.getupside.dw.auth.dao.PeerDAO;
+import com.getupside.dw.auth.model.AllowedPeers;
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.auth.basic.BasicCredentials;
+import io.dropwizard.servlets.tasks.Task;
+
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * <p>Admin task that reloads the allowed peers right away, e.g. after rotating a secret:</p>
+ * <pre>
+ * curl -X POST http://localhost:8081/tasks/reload-allowed-peers
+ * </pre>
+ * <p>Only the cached credentials of usernames that were added, removed or changed are invalidated, and the task
+ * responds with what changed and how long the reload took.  Client certificate fingerprints are reloaded too, if
+ * they're in use, from the same read of the PeerDAO when one is given.</p>
+ */
+public class ReloadAllowedPeersTask extends Task {
+    public static final String NAME = "reload-allowed-peers";
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private final ReloadableAuthenticator<BasicCredentials> authenticator;
+    private final DrainingCachingAuthenticator<BasicCredentials> cachingAuthenticator;
+    private final ReloadableAuthenticator<ClientCertificateCredentials> certificateAuthenticator;
+    private final PeerDAO peerDAO;
+
+    /**
+     * @param authenticator The authenticator whose peers get reloaded
+     * @param cachingAuthenticator The cache in front of {@code authenticator}, or null if there isn't one
+     */
+    public ReloadAllowedPeersTask(ReloadableAuthenticator<BasicCredentials> authenticator,
+                                  DrainingCachingAuthenticator<BasicCredentials> cachingAuthenticator) {
+        this(authenticator, cachingAuthenticator, null);
+    }
+
+    /**
+     * @param authenticator The authenticator whose peers get reloaded
+     * @param cachingAuthenticator The cache in front of {@code authenticator}, or null if there isn't one
+     * @param certificateAuthenticator The authenticator whose client certificates get reloaded, or null if there isn't
+     * one
+     */
+    public ReloadAllowedPeersTask(ReloadableAuthenticator<BasicCredentials> authenticator,
+                                  DrainingCachingAuthenticator<BasicCredentials> cachingAuthenticator,
+                                  ReloadableAuthenticator<ClientCertificateCredentials> certificateAuthenticator) {
+        this(authenticator, cachingAuthenticator, certificateAuthenticator, null);
+    }
+
+    /**
+     * @param authenticator The authenticator whose peers get reloaded
+     * @param cachingAuthenticator The cache in front of {@code authenticator}, or null if there isn't one
+     * @param certificateAuthenticator The authenticator whose client certificates get reloaded, or null if there isn't
+     * one
+     * @param peerDAO The PeerDAO both authenticators fetch from, read once per reload and handed to each of them, or
+     * null to have each authenticator fetch for itself
+     */
+    public ReloadAllowedPeersTask(ReloadableAuthenticator<BasicCredentials> authenticator,
+                                  DrainingCachingAuthenticator<BasicCredentials> cachingAuthenticator,
+                                  ReloadableAuthenticator<ClientCertificateCredentials> certificateAuthenticator,
+                                  PeerDAO peerDAO) {
+        super(NAME);
+        this.authenticator = checkNotNull(authenticator, "Must provide non-null authenticator");
+        this.cachingAuthenticator = cachingAuthenticator;
+        this.certificateAuthenticator = certificateAuthenticator;
+        this.peerDAO = peerDAO;
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+        long start = System.nanoTime();
+        // One snapshot for both, so the passwords and fingerprints can't come from either side of a rotation
+        AllowedPeers allowedPeers = this.peerDAO == null ? null : this.peerDAO.findAllowedPeers();
+        PeerIndexDiff diff = reload(this.authenticator, allowedPeers);
+
+        if (this.cachingAuthenticator != null && !diff.isEmpty()) {
+            Set<String> affected = diff.getAffectedUsernames();
+            this.cachingAuthenticator.invalidateAll(credentials -> affected.contains(credentials.getUsername()));
+        }
+
+        PeerIndexDiff certificateDiff = this.certificateAuthenticator == null
+            ? null
+            : reload(this.certificateAuthenticator, allowedPeers);
+
+        long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        LOGGER.info("Reloaded allowed peers in {}us: {}", elapsedMicros, diff);
+        output.printf("Reloaded allowed peers in %dus%n", elapsedMicros);
+        print(output, "", diff);
+        if (certificateDiff != null) {
+            LOGGER.info("Reloaded allowed client certificates: {}", certificateDiff);
+            print(output, "certificates ", certificateDiff);
+        }
+        output.flush();
+    }
+
+    private static PeerIndexDiff reload(ReloadableAuthenticator<?> authenticator, AllowedPeers allowedPeers) {
+        return allowedPeers == null ? authenticator.reload() : authenticator.reload(allowedPeers);
+    }
+
+    private static void print(PrintWriter output, String prefix, PeerIndexDiff diff) {
+        output.printf("%sadded: %d %s%n", prefix, diff.getAdded().size(), diff.getAdded());
+        output.printf("%sremoved: %d %s%n", prefix, diff.getRemoved().size(), diff.getRemoved());
+        output.printf("%schanged: %d %s%n", prefix, diff.getChanged().size(), diff.getChanged());
+    }
+}
@@ -0,0 +1,32 @@
+package com.getupside.dw.auth;
+
+import com.getupside.dw.auth.model.AllowedPeers;
+import com.getupside.dw.auth.model.Peer;
+import io.dropwizard.auth.Authenticator;
+
+
+/**
+ * <p>Contract of an Authenticator whose allowed peers can be reloaded while the service is running.</p>
+ *
+ * @param <C> the type of credentials
+ */
+public interface ReloadableAuthenticator<C> extends Authenticator<C, Peer> {
+
+    /**
+     * Fetches all allowed peers again and replaces the current ones with them.
+     *
+     * @return The usernames that were added, removed or had their password(s) changed by this reload
+     */
+    PeerIndexDiff reload();
+
+    /**
+     * Replaces the current peers with {@code allowedPeers}, already fetched from this authenticator's PeerDAO, so that
+     * authenticators sharing a PeerDAO can all be reloaded from a single read of it.  By default they're ignored and
+     * this fetches again, like {@code reload()}.
+     *
+     * @return The usernames that were added, removed or had their password(s) changed by this reload
+     */
+    default PeerIndexDiff reload(AllowedPeers allowedPeers) {
+        return reload();
+    }
+}
@@ -5,7 +5,10 @@ import com.amazonaws.services.secretsmanager.model.GetSecretValueRequest;
 import com.amazonaws.services.secretsmanager.model.GetSecretValueResult;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.getupside.dw.auth.model.AllowedPeers;
 import com.getupside.dw.auth.model.Peer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,6 +21,9 @@ import java.lang.invoke.MethodHandles;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -30,13 +36,30 @@ public class AWSSecretsManagerPeerDAO implements PeerDAO {
     // If our secretId begins with this String, this SecretProvider will load a JSON map from the
     // classpath location following this string and use that as the source of BasicAuth
     public static final String MOCK_SECRET_PREFIX = "mock:";
+    // Secret values beginning with these Strings are SHA-256 fingerprints of an allowed client certificate, taken over
+    // either the whole DER encoded certificate or just its SubjectPublicKeyInfo (which survives certificate renewal)
+    public static final String CERTIFICATE_FINGERPRINT_PREFIX = "sha256:";
+    public static final String SPKI_FINGERPRINT_PREFIX = "spki-sha256:";
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
     private final AWSSecretsManager client;
     private final Collection<String> secretCoordinates;
     private final ObjectMapper objectMapper;
+    private final boolean clientCertificates;
 
     public AWSSecretsManagerPeerDAO(AWSSecretsManager client,
                                     Collection<String> secretCoordinates) {
+        this(client, secretCoordinates, false);
+    }
+
+    /**
+     * @param client The AWS Secrets Manager client, which may be null if all the secret coordinates are mocks
+     * @param secretCoordinates The secret coordinates holding the allowed peers
+     * @param clientCertificates True to treat secret values that are certificate fingerprints as such, rather than as
+     * passwords
+     */
+    public AWSSecretsManagerPeerDAO(AWSSecretsManager client,
+                                    Collection<String> secretCoordinates,
+                                    boolean clientCertificates) {
 
         checkNotNull(secretCoordinates, "Must provide non-null secretCoordinates");
 
@@ -56,22 +79,75 @@ public class AWSSecretsManagerPeerDAO implements PeerDAO {
         this.client  = client;
 
         this.objectMapper = new ObjectMapper().findAndRegisterModules();
+
+        this.clientCertificates = clientCertificates;
     }
 
     @Override
     public Set<Peer> findAll() {
+        return peers(lookupSecretMaps());
+    }
 
-        try {
-            ImmutableSet.Builder<Peer> builder = ImmutableSet.builder();
+    /**
+     * Client certificates are declared in the same secret coordinates as passwords, with the value being the
+     * certificate's fingerprint instead of a password, e.g. { "echo-client": "sha256:AB:12:..." } or
+     * { "echo-client": "spki-sha256:ab12..." }.  If this DAO was constructed with {@code clientCertificates}, such
+     * entries are never returned from {@code findAll}, so a fingerprint can't be used as a BasicAuth password.
+     * Otherwise they're ordinary passwords and this returns an empty Map.
+     */
+    @Override
+    public Map<String, String> findAllCertificateFingerprints() {
+        return certificateFingerprints(lookupSecretMaps());
+    }
 
-            for (String secretCoordinate : this.secretCoordinates) {
-                String secretJson = lookupSecret(secretCoordinate);
+    @Override
+    public AllowedPeers findAllowedPeers() {
+        List<Map<String, String>> secretMaps = lookupSecretMaps();
+        return new AllowedPeers(peers(secretMaps), certificateFingerprints(secretMaps));
+    }
 
-                Map<String, String> secretMap = jsonToMap(secretJson);
+    private Set<Peer> peers(List<Map<String, String>> secretMaps) {
+        ImmutableSet.Builder<Peer> builder = ImmutableSet.builder();
 
-                secretMap.forEach((k, v) -> {
+        for (Map<String, String> secretMap : secretMaps) {
+            secretMap.forEach((k, v) -> {
+                if (!this.clientCertificates || !isCertificateFingerprint(v)) {
                     builder.add(new Peer(k, v));
-                });
+                }
+            });
+        }
+
+        return builder.build();
+    }
+
+    private Map<String, String> certificateFingerprints(List<Map<String, String>> secretMaps) {
+        if (!this.clientCertificates) {
+            return ImmutableMap.of();
+        }
+        Map<String, String> fingerprints = new LinkedHashMap<>();
+
+        for (Map<String, String> secretMap : secretMaps) {
+            secretMap.forEach((k, v) -> {
+                if (isCertificateFingerprint(v)) {
+                    String previous = fingerprints.putIfAbsent(normalizeFingerprint(v), k);
+                    if (previous != null && !previous.equals(k)) {
+                        LOGGER.warn("Certificate fingerprint {} is assigned to both '{}' and '{}'; keeping '{}'",
+                                    v, previous, k, previous);
+                    }
+                }
+            });
+        }
+
+        return ImmutableMap.copyOf(fingerprints);
+    }
+
+    private List<Map<String, String>> lookupSecretMaps() {
+        try {
+            ImmutableList.Builder<Map<String, String>> builder = ImmutableList.builder();
+
+            for (String secretCoordinate : this.secretCoordinates) {
+                String secretJson = lookupSecret(secretCoordinate);
+                builder.add(jsonToMap(secretJson));
             }
 
             return builder.build();
@@ -82,6 +158,25 @@ public class AWSSecretsManagerPeerDAO implements PeerDAO {
         }
     }
 
+    /**
+     * @param value A value from a secret map
+     * @return True if {@code value} names a client certificate fingerprint rather than a password
+     */
+    public static boolean isCertificateFingerprint(String value) {
+        return value != null
+            && (value.startsWith(CERTIFICATE_FINGERPRINT_PREFIX) || value.startsWith(SPKI_FINGERPRINT_PREFIX));
+    }
+
+    /**
+     * @param fingerprint A fingerprint as written by a human, e.g. "sha256:AB:12:..."
+     * @return The fingerprint in the form used as a key by {@code findAllCertificateFingerprints}, e.g. "sha256:ab12..."
+     */
+    static String normalizeFingerprint(String fingerprint) {
+        int separator = fingerprint.indexOf(':');
+        String digest = fingerprint.substring(separator + 1).replace(":", "").trim().toLowerCase(Locale.ROOT);
+        return fingerprint.substring(0, separator + 1) + digest;
+    }
+
     private String lookupSecret(String secretName) {
         checkNotNull(secretName);
         if (secretName.startsWith(MOCK_SECRET_PREFIX)) {
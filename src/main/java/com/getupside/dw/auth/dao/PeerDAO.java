@@ -1,7 +1,10 @@
 package com.getupside.dw.auth.dao;
 
+import com.getupside.dw.auth.model.AllowedPeers;
 import com.getupside.dw.auth.model.Peer;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -15,6 +18,24 @@ public interface PeerDAO {
      */
     Set<Peer> findAll();
 
+    /**
+     * @return Get the fingerprints of all allowed client certificates, mapped to the name of the Peer presenting them.
+     * Keys are normalized to a lower case hex digest with a prefix naming what was hashed, e.g. "sha256:ab12..." for
+     * the DER encoded certificate or "spki-sha256:ab12..." for its SubjectPublicKeyInfo.  Implementations that don't
+     * know about client certificates return an empty Map.
+     */
+    default Map<String, String> findAllCertificateFingerprints() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return The same as {@code findAll} and {@code findAllCertificateFingerprints} together.  Implementations backed by
+     * a remote store should override this to read it only once.
+     */
+    default AllowedPeers findAllowedPeers() {
+        return new AllowedPeers(findAll(), findAllCertificateFingerprints());
+    }
+
     /**
      *
      * @param peers A Set of Peers to check to see if there's already someone named {@code username} in it
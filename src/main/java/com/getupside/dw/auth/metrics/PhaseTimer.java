@@ -0,0 +1,59 @@
+package com.getupside.dw.auth.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * <p>Times one phase of authenticating a request, for a random sample of the requests passing through it.</p>
+ * <p>Callers ask {@code sample()} first and only read {@code System.nanoTime} when it says yes, so requests that aren't
+ * sampled pay for one thread-local random number and nothing else.  Durations land in a Timer with the default,
+ * exponentially decaying reservoir: it holds a fixed number of samples weighted towards the last five minutes, so its
+ * memory stays bounded however many requests are timed.</p>
+ */
+public class PhaseTimer {
+    public static final String METRIC_PREFIX = "com.getupside.dw.auth.phase";
+    private final Timer timer;
+    private final double sampleRate;
+
+    /**
+     * @param timer Where sampled durations are recorded
+     * @param sampleRate The fraction of calls to time, greater than 0 and at most 1
+     */
+    public PhaseTimer(Timer timer, double sampleRate) {
+        checkNotNull(timer, "Must provide non-null timer");
+        checkArgument(sampleRate > 0 && sampleRate <= 1, "sampleRate must be in (0, 1] but was %s", sampleRate);
+        this.timer = timer;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @param metrics The registry to register the phase's Timer with
+     * @param phase The name of the phase, e.g. "probe"; the Timer is registered as "com.getupside.dw.auth.phase.probe"
+     * @param sampleRate The fraction of calls to time, greater than 0 and at most 1
+     * @return A PhaseTimer recording into the named Timer
+     */
+    public static PhaseTimer create(MetricRegistry metrics, String phase, double sampleRate) {
+        return new PhaseTimer(metrics.timer(MetricRegistry.name(METRIC_PREFIX, phase)), sampleRate);
+    }
+
+    /**
+     * @return True if the current call should be timed
+     */
+    public boolean sample() {
+        return this.sampleRate == 1 || ThreadLocalRandom.current().nextDouble() < this.sampleRate;
+    }
+
+    /**
+     * @param startNanos The {@code System.nanoTime} the sampled phase started at
+     */
+    public void stop(long startNanos) {
+        this.timer.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
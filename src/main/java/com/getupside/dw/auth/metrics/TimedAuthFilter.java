@@ -0,0 +1,41 @@
+package com.getupside.dw.auth.metrics;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import java.io.IOException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * <p>Request filter decorator that times a sample of the requests passing through the auth filter it wraps, i.e.
+ * decoding the credentials off the request plus authenticating them.</p>
+ */
+@Priority(Priorities.AUTHENTICATION)
+public class TimedAuthFilter implements ContainerRequestFilter {
+    private final ContainerRequestFilter delegate;
+    private final PhaseTimer timer;
+
+    public TimedAuthFilter(ContainerRequestFilter delegate, PhaseTimer timer) {
+        this.delegate = checkNotNull(delegate, "Must provide non-null delegate");
+        this.timer = checkNotNull(timer, "Must provide non-null timer");
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        if (!this.timer.sample()) {
+            this.delegate.filter(requestContext);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            this.delegate.filter(requestContext);
+        }
+        finally {
+            this.timer.stop(start);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.getupside.dw.auth.metrics;
+
+import io.dropwizard.auth.AuthenticationException;
+import io.dropwizard.auth.Authenticator;
+
+import java.security.Principal;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * <p>Authenticator decorator that times a sample of the calls to the Authenticator it wraps.</p>
+ *
+ * @param <C> the type of credentials
+ * @param <P> the type of principals
+ */
+public class TimedAuthenticator<C, P extends Principal> implements Authenticator<C, P> {
+    private final Authenticator<C, P> delegate;
+    private final PhaseTimer timer;
+
+    public TimedAuthenticator(Authenticator<C, P> delegate, PhaseTimer timer) {
+        this.delegate = checkNotNull(delegate, "Must provide non-null delegate");
+        this.timer = checkNotNull(timer, "Must provide non-null timer");
+    }
+
+    @Override
+    public Optional<P> authenticate(C credentials) throws AuthenticationException {
+        if (!this.timer.sample()) {
+            return this.delegate.authenticate(credentials);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return this.delegate.authenticate(credentials);
+        }
+        finally {
+            this.timer.stop(start);
+        }
+    }
+}
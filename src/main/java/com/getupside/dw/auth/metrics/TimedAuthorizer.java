@@ -0,0 +1,38 @@
+package com.getupside.dw.auth.metrics;
+
+import io.dropwizard.auth.Authorizer;
+
+import java.security.Principal;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * <p>Authorizer decorator that times a sample of the calls to the Authorizer it wraps.</p>
+ *
+ * @param <P> the type of principals
+ */
+public class TimedAuthorizer<P extends Principal> implements Authorizer<P> {
+    private final Authorizer<P> delegate;
+    private final PhaseTimer timer;
+
+    public TimedAuthorizer(Authorizer<P> delegate, PhaseTimer timer) {
+        this.delegate = checkNotNull(delegate, "Must provide non-null delegate");
+        this.timer = checkNotNull(timer, "Must provide non-null timer");
+    }
+
+    @Override
+    public boolean authorize(P principal, String role) {
+        if (!this.timer.sample()) {
+            return this.delegate.authorize(principal, role);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return this.delegate.authorize(principal, role);
+        }
+        finally {
+            this.timer.stop(start);
+        }
+    }
+}
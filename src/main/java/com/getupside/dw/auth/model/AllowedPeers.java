@@ -0,0 +1,36 @@
+package com.getupside.dw.auth.model;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * <p>Everything a PeerDAO allows at one point in time: the BasicAuth Peers and the client certificate fingerprints,
+ * read together so that both can be indexed from a single pass over the underlying store.</p>
+ */
+public class AllowedPeers {
+    private final Set<Peer> peers;
+    private final Map<String, String> certificateFingerprints;
+
+    public AllowedPeers(Set<Peer> peers, Map<String, String> certificateFingerprints) {
+        this.peers = ImmutableSet.copyOf(peers);
+        this.certificateFingerprints = ImmutableMap.copyOf(certificateFingerprints);
+    }
+
+    /**
+     * @return The allowed BasicAuth Peers
+     */
+    public Set<Peer> getPeers() {
+        return this.peers;
+    }
+
+    /**
+     * @return The fingerprints of the allowed client certificates, mapped to the name of the Peer presenting them
+     */
+    public Map<String, String> getCertificateFingerprints() {
+        return this.certificateFingerprints;
+    }
+}
@@ -0,0 +1,134 @@
+package com.getupside.dw.auth.quota;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * <p>The quota state of a single Peer: a token bucket for its request rate and a counter of its requests in
+ * progress.</p>
+ * <p>The token bucket is kept as a single "theoretical arrival time" (the generic cell rate algorithm): each admitted
+ * request pushes it one emission interval into the future, and a request is turned away when doing so would put it
+ * more than the burst ahead of now.  Both it and the in-progress counter are updated with compare-and-set loops on
+ * atomics owned by this Peer alone, so Peers never contend with one another and no request ever blocks.</p>
+ */
+public class PeerQuota {
+    /**
+     * Returned by {@code tryAcquire} when the request was admitted
+     */
+    public static final long ADMITTED = 0;
+
+    private final Ticker ticker;
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final int maxConcurrentRequests;
+    private final AtomicLong theoreticalArrivalNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public PeerQuota(PeerQuotaConfiguration configuration, Ticker ticker) {
+        checkValid(configuration);
+        this.ticker = checkNotNull(ticker, "Must provide non-null ticker");
+
+        if (configuration.getRequestsPerSecond() > 0) {
+            this.emissionIntervalNanos = Math.max(1L,
+                Math.round(TimeUnit.SECONDS.toNanos(1) / configuration.getRequestsPerSecond()));
+            this.burstToleranceNanos = this.emissionIntervalNanos * (configuration.getBurst() - 1);
+        }
+        else {
+            this.emissionIntervalNanos = 0;
+            this.burstToleranceNanos = 0;
+        }
+        this.maxConcurrentRequests = configuration.getMaxConcurrentRequests();
+        this.theoreticalArrivalNanos = new AtomicLong(ticker.read());
+    }
+
+    /**
+     * @param configuration A quota configuration
+     * @throws IllegalArgumentException if {@code configuration} can't be enforced, e.g. its burst is 0
+     */
+    static void checkValid(PeerQuotaConfiguration configuration) {
+        checkNotNull(configuration, "Must provide non-null configuration");
+        checkArgument(configuration.getRequestsPerSecond() >= 0, "requestsPerSecond must not be negative");
+        checkArgument(configuration.getBurst() >= 1, "burst must be at least 1");
+        checkArgument(configuration.getMaxConcurrentRequests() >= 0, "maxConcurrentRequests must not be negative");
+    }
+
+    /**
+     * Admits a request if both the rate and concurrency limits allow it.  An admitted request must be followed by a
+     * call to {@code release} once it completes.
+     *
+     * @return {@code ADMITTED}, or else how many nanoseconds the Peer should wait before trying again
+     */
+    public long tryAcquire() {
+        if (!tryAcquireSlot()) {
+            return TimeUnit.SECONDS.toNanos(1);
+        }
+
+        long wait = tryAcquirePermit();
+        if (wait != ADMITTED) {
+            releaseSlot();
+        }
+        return wait;
+    }
+
+    /**
+     * Ends a request previously admitted by {@code tryAcquire}
+     */
+    public void release() {
+        releaseSlot();
+    }
+
+    /**
+     * @return How many admitted requests of this Peer haven't been released yet
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    private long tryAcquirePermit() {
+        if (this.emissionIntervalNanos == 0) {
+            return ADMITTED;
+        }
+
+        long now = this.ticker.read();
+        while (true) {
+            long current = this.theoreticalArrivalNanos.get();
+            long arrival = current - now < 0 ? now : current;
+            long ahead = arrival - now;
+            if (ahead > this.burstToleranceNanos) {
+                return ahead - this.burstToleranceNanos;
+            }
+            if (this.theoreticalArrivalNanos.compareAndSet(current, arrival + this.emissionIntervalNanos)) {
+                return ADMITTED;
+            }
+        }
+    }
+
+    private boolean tryAcquireSlot() {
+        if (this.maxConcurrentRequests == 0) {
+            return true;
+        }
+
+        while (true) {
+            int current = this.inFlight.get();
+            if (current >= this.maxConcurrentRequests) {
+                return false;
+            }
+            if (this.inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void releaseSlot() {
+        if (this.maxConcurrentRequests != 0) {
+            this.inFlight.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.getupside.dw.auth.quota;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+
+/**
+ * <p>Limits on how much of the service a single Peer may use, e.g.</p>
+ * <pre>
+ * requestsPerSecond: 50
+ * burst: 100
+ * maxConcurrentRequests: 8
+ * </pre>
+ * <p>A limit left at 0 is not enforced.</p>
+ */
+public class PeerQuotaConfiguration {
+
+    @JsonProperty("requestsPerSecond")
+    private double requestsPerSecond = 0;
+
+    @JsonProperty("burst")
+    private int burst = 1;
+
+    @JsonProperty("maxConcurrentRequests")
+    private int maxConcurrentRequests = 0;
+
+    /**
+     * @return The sustained rate of requests the Peer may make, or 0 for no rate limit
+     */
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /**
+     * @param requestsPerSecond The sustained rate of requests the Peer may make, or 0 for no rate limit
+     */
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    /**
+     * @return How many requests the Peer may make back to back, after being idle, before the rate limit kicks in
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @param burst How many requests the Peer may make back to back, after being idle, before the rate limit kicks in.
+     * Defaults to 1.
+     */
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    /**
+     * @return How many of the Peer's requests may be in progress at once, or 0 for no concurrency limit
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * @param maxConcurrentRequests How many of the Peer's requests may be in progress at once, or 0 for no
+     * concurrency limit
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+}
@@ -0,0 +1,153 @@
+package com.getupside.dw.auth.quota;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.Response;
+import java.lang.invoke.MethodHandles;
+import java.security.Principal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * <p>Enforces per-Peer quotas on authenticated requests, right after the auth filter has established who the Peer is.
+ * A request over its Peer's rate or concurrency limit is answered with 429 Too Many Requests and a Retry-After header.
+ * Requests without an authenticated principal, or whose Peer has no quota, pass straight through.</p>
+ * <p>An admitted request gives its concurrency slot back once Jersey has finished with it.  That's done from a
+ * request event listener rather than a response filter, because Jersey skips the response filters when an exception
+ * reaches it that no ExceptionMapper handles, and the slot would then be lost for good.</p>
+ * <p>Each Peer that gets throttled has a Meter named "com.getupside.dw.auth.quota.&lt;username&gt;.throttled".</p>
+ */
+@Priority(Priorities.AUTHENTICATION + 1)
+public class PeerQuotaFilter implements ContainerRequestFilter, ApplicationEventListener {
+    public static final String METRIC_PREFIX = "com.getupside.dw.auth.quota";
+    public static final int TOO_MANY_REQUESTS = 429;
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    // Request property holding the PeerQuota an admitted request must be released from
+    private static final String ADMITTED_QUOTA_PROPERTY = PeerQuotaFilter.class.getName() + ".quota";
+
+    private final Map<String, ThrottledQuota> quotas = new ConcurrentHashMap<>();
+    private final PeerQuotaConfiguration defaultQuota;
+    private final MetricRegistry metrics;
+    private final Ticker ticker;
+    // Holds no state of its own, so every request shares it
+    private final RequestEventListener releaser = this::release;
+
+    /**
+     * @param quotas Quotas of specific Peers, by username
+     * @param defaultQuota The quota of every other Peer, or null to leave them unlimited
+     * @param metrics Where per-Peer throttling Meters are registered
+     * @throws IllegalArgumentException if any of the quotas can't be enforced, e.g. its burst is 0
+     */
+    public PeerQuotaFilter(Map<String, PeerQuotaConfiguration> quotas, PeerQuotaConfiguration defaultQuota,
+                           MetricRegistry metrics) {
+        this(quotas, defaultQuota, metrics, Ticker.systemTicker());
+    }
+
+    // package private for testing
+    PeerQuotaFilter(Map<String, PeerQuotaConfiguration> quotas, PeerQuotaConfiguration defaultQuota,
+                    MetricRegistry metrics, Ticker ticker) {
+        checkNotNull(quotas, "Must provide non-null quotas");
+        // The default quota is only put to use on a Peer's first request, so check it now rather than fail them all
+        if (defaultQuota != null) {
+            PeerQuota.checkValid(defaultQuota);
+        }
+        this.defaultQuota = defaultQuota;
+        this.metrics = checkNotNull(metrics, "Must provide non-null metrics");
+        this.ticker = ticker;
+        quotas.forEach((username, quota) -> this.quotas.put(username, newQuota(username, quota)));
+        LOGGER.info("Constructed quota filter with {} peer quotas and {} default quota", this.quotas.size(),
+                    defaultQuota == null ? "no" : "a");
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        Principal principal = requestContext.getSecurityContext().getUserPrincipal();
+        if (principal == null) {
+            return;
+        }
+
+        ThrottledQuota quota = quotaFor(principal.getName());
+        if (quota == null) {
+            return;
+        }
+
+        long waitNanos = quota.quota.tryAcquire();
+        if (waitNanos == PeerQuota.ADMITTED) {
+            requestContext.setProperty(ADMITTED_QUOTA_PROPERTY, quota.quota);
+            return;
+        }
+
+        quota.throttled.mark();
+        LOGGER.debug("{} is over its quota; asking it to retry in {}ns", principal.getName(), waitNanos);
+        requestContext.abortWith(Response.status(TOO_MANY_REQUESTS)
+                                     .header("Retry-After", retryAfterSeconds(waitNanos))
+                                     .build());
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+        // only requests are of interest
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        return this.releaser;
+    }
+
+    // Jersey fires FINISHED for every request, however it ended
+    private void release(RequestEvent event) {
+        if (event.getType() != RequestEvent.Type.FINISHED) {
+            return;
+        }
+        ContainerRequest request = event.getContainerRequest();
+        Object quota = request.getProperty(ADMITTED_QUOTA_PROPERTY);
+        if (quota != null) {
+            request.removeProperty(ADMITTED_QUOTA_PROPERTY);
+            ((PeerQuota) quota).release();
+        }
+    }
+
+    private ThrottledQuota quotaFor(String username) {
+        ThrottledQuota quota = this.quotas.get(username);
+        if (quota == null && this.defaultQuota != null) {
+            quota = this.quotas.computeIfAbsent(username, name -> newQuota(name, this.defaultQuota));
+        }
+        return quota;
+    }
+
+    private ThrottledQuota newQuota(String username, PeerQuotaConfiguration configuration) {
+        return new ThrottledQuota(new PeerQuota(configuration, this.ticker),
+                                  this.metrics.meter(MetricRegistry.name(METRIC_PREFIX, username, "throttled")));
+    }
+
+    private static long retryAfterSeconds(long waitNanos) {
+        return Math.max(1L, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private static class ThrottledQuota {
+        private final PeerQuota quota;
+        private final Meter throttled;
+
+        ThrottledQuota(PeerQuota quota, Meter throttled) {
+            this.quota = quota;
+            this.throttled = throttled;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.getupside.dw.auth.shared;
+
+import com.getupside.dw.auth.model.Peer;
+import com.google.common.collect.ImmutableSetMultimap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkState;
+
+
+/**
+ * <p>An immutable, open addressing hash table of Peers laid out in a file so that other processes can memory-map it and
+ * look Peers up directly, without deserializing or copying it.</p>
+ * <pre>
+ * header:  int magic, int format, long version, int slotCount, int peerCount
+ * slots:   slotCount ints, each the offset of a record or 0 for an empty slot (linear probing on the username hash)
+ * records: int usernameHash, int usernameLength, username bytes, int passwordLength (-1 if null), password bytes
+ * </pre>
+ * <p>Strings are UTF-8, numbers big-endian.  A file is never modified once written; newer versions are written to a new
+ * file that replaces the old one.</p>
+ */
+class MappedPeerIndex {
+    static final int MAGIC = 0x50454552;
+    static final int FORMAT = 1;
+    private static final int VERSION_OFFSET = 8;
+    private static final int SLOT_COUNT_OFFSET = 16;
+    private static final int PEER_COUNT_OFFSET = 20;
+    private static final int SLOTS_OFFSET = 24;
+
+    private final ByteBuffer buffer;
+    private final long version;
+    private final int slotCount;
+    private final int peerCount;
+
+    MappedPeerIndex(ByteBuffer buffer) {
+        checkState(buffer.capacity() >= SLOTS_OFFSET && buffer.getInt(0) == MAGIC,
+                   "Not a shared peer index");
+        checkState(buffer.getInt(4) == FORMAT, "Unsupported shared peer index format %s", buffer.getInt(4));
+        this.buffer = buffer;
+        this.version = buffer.getLong(VERSION_OFFSET);
+        this.slotCount = buffer.getInt(SLOT_COUNT_OFFSET);
+        this.peerCount = buffer.getInt(PEER_COUNT_OFFSET);
+    }
+
+    /**
+     * @param path A file written from {@code encode}
+     * @return The index in {@code path}, mapped read-only
+     */
+    static MappedPeerIndex map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed, and after the file is replaced
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedPeerIndex(buffer);
+        }
+    }
+
+    /**
+     * @param version The version to stamp the index with
+     * @param peers The Peers to index
+     * @return The bytes of an index of {@code peers}, ready to be written to a file
+     */
+    static ByteBuffer encode(long version, Collection<Peer> peers) {
+        int slotCount = Integer.highestOneBit(Math.max(2, peers.size() * 2) - 1) << 1;
+        List<byte[]> usernames = new ArrayList<>(peers.size());
+        List<byte[]> passwords = new ArrayList<>(peers.size());
+        int size = SLOTS_OFFSET + slotCount * Integer.BYTES;
+        for (Peer peer : peers) {
+            byte[] username = utf8(peer.getName());
+            byte[] password = peer.getPassword() == null ? new byte[0] : utf8(peer.getPassword());
+            usernames.add(username);
+            passwords.add(password);
+            size += 3 * Integer.BYTES + username.length + password.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT);
+        buffer.putLong(VERSION_OFFSET, version);
+        buffer.putInt(SLOT_COUNT_OFFSET, slotCount);
+        buffer.putInt(PEER_COUNT_OFFSET, peers.size());
+
+        int offset = SLOTS_OFFSET + slotCount * Integer.BYTES;
+        int i = 0;
+        for (Peer peer : peers) {
+            int hash = peer.getName().hashCode();
+            int slot = spread(hash) & (slotCount - 1);
+            while (buffer.getInt(SLOTS_OFFSET + slot * Integer.BYTES) != 0) {
+                slot = (slot + 1) & (slotCount - 1);
+            }
+            buffer.putInt(SLOTS_OFFSET + slot * Integer.BYTES, offset);
+
+            buffer.position(offset);
+            buffer.putInt(hash);
+            buffer.putInt(usernames.get(i).length);
+            buffer.put(usernames.get(i));
+            buffer.putInt(peer.getPassword() == null ? -1 : passwords.get(i).length);
+            buffer.put(passwords.get(i));
+            offset = buffer.position();
+            i++;
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    long getVersion() {
+        return this.version;
+    }
+
+    int getPeerCount() {
+        return this.peerCount;
+    }
+
+    /**
+     * @return True if there's a Peer named {@code username} with password {@code password} in this index
+     */
+    boolean contains(String username, String password) {
+        int hash = username.hashCode();
+        int mask = this.slotCount - 1;
+
+        int slot = spread(hash) & mask;
+        for (int probes = 0; probes < this.slotCount; probes++, slot = (slot + 1) & mask) {
+            int offset = this.buffer.getInt(SLOTS_OFFSET + slot * Integer.BYTES);
+            if (offset == 0) {
+                return false;
+            }
+            if (this.buffer.getInt(offset) == hash && matches(offset + Integer.BYTES, username)) {
+                int passwordOffset = offset + 2 * Integer.BYTES + this.buffer.getInt(offset + Integer.BYTES);
+                if (matches(passwordOffset, password)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Every Peer in this index, by username
+     */
+    ImmutableSetMultimap<String, Peer> peersByName() {
+        ImmutableSetMultimap.Builder<String, Peer> builder = ImmutableSetMultimap.builder();
+        for (int slot = 0; slot < this.slotCount; slot++) {
+            int offset = this.buffer.getInt(SLOTS_OFFSET + slot * Integer.BYTES);
+            if (offset != 0) {
+                int usernameLength = this.buffer.getInt(offset + Integer.BYTES);
+                String username = string(offset + 2 * Integer.BYTES, usernameLength);
+                int passwordOffset = offset + 2 * Integer.BYTES + usernameLength;
+                int passwordLength = this.buffer.getInt(passwordOffset);
+                String password = passwordLength < 0 ? null : string(passwordOffset + Integer.BYTES, passwordLength);
+                builder.put(username, new Peer(username, password));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Encodes {@code expected} as it goes rather than into a new array, since this runs on every lookup.  Like
+     * {@code String.getBytes}, an unpaired surrogate is encoded as '?'.
+     *
+     * @return True if the length-prefixed UTF-8 string at {@code offset} is exactly {@code expected}
+     */
+    private boolean matches(int offset, String expected) {
+        int position = offset + Integer.BYTES;
+        int end = position + this.buffer.getInt(offset);
+        for (int i = 0; i < expected.length(); i++) {
+            int codePoint = expected.charAt(i);
+            if (Character.isHighSurrogate((char) codePoint) && i + 1 < expected.length()
+                    && Character.isLowSurrogate(expected.charAt(i + 1))) {
+                codePoint = Character.toCodePoint((char) codePoint, expected.charAt(++i));
+            }
+            else if (Character.isSurrogate((char) codePoint)) {
+                codePoint = '?';
+            }
+
+            int length = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (end - position < length) {
+                return false;
+            }
+            // The first byte carries the length in its high bits, the others six bits each behind a 10 marker
+            int first = length == 1 ? codePoint : (0xF00 >> length) | (codePoint >> (6 * (length - 1)));
+            if (this.buffer.get(position) != (byte) first) {
+                return false;
+            }
+            for (int k = 1; k < length; k++) {
+                if (this.buffer.get(position + k) != (byte) (0x80 | ((codePoint >> (6 * (length - 1 - k))) & 0x3F))) {
+                    return false;
+                }
+            }
+            position += length;
+        }
+        return position == end;
+    }
+
+    private String string(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = this.buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Same spreading as HashMap, so usernames differing only in their high bits don't all probe from one slot
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,58 @@
+package com.getupside.dw.auth.shared;
+
+import com.getupside.dw.auth.PeerIndexDiff;
+import com.getupside.dw.auth.ReloadableAuthenticator;
+import com.getupside.dw.auth.model.Peer;
+import io.dropwizard.auth.AuthenticationException;
+import io.dropwizard.auth.basic.BasicCredentials;
+
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+/**
+ * <p>Implementation of a DropWizard Authenticator interface that looks BasicAuth callers up in a
+ * {@link SharedPeerStore}, i.e. directly in the peer index memory-mapped from the file shared by every JVM on the
+ * host.</p>
+ */
+public class SharedPeerAuthenticator implements ReloadableAuthenticator<BasicCredentials> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private final SharedPeerStore store;
+
+    public SharedPeerAuthenticator(SharedPeerStore store) {
+        this.store = checkNotNull(store, "Must provide non-null store");
+    }
+
+    @Override
+    public Optional<Peer> authenticate(BasicCredentials credentials) throws AuthenticationException {
+        boolean allowed;
+        try {
+            allowed = this.store.contains(credentials.getUsername(), credentials.getPassword());
+        }
+        catch (IllegalStateException | UncheckedIOException e) {
+            throw new AuthenticationException(e);
+        }
+
+        if (allowed) {
+            LOGGER.debug("{} authenticated and allowed to request service", credentials.getUsername());
+            return Optional.of(new Peer(credentials.getUsername(), credentials.getPassword()));
+        }
+        LOGGER.debug("{} is not known in our list of allowed peers", credentials.getUsername());
+        return Optional.empty();
+    }
+
+    /**
+     * Fetches and publishes the peers again, if this JVM is the writer of the shared store.
+     *
+     * @throws IllegalStateException if another JVM is the writer
+     */
+    @Override
+    public PeerIndexDiff reload() {
+        return this.store.reload();
+    }
+}
@@ -0,0 +1,397 @@
+package com.getupside.dw.auth.shared;
+
+import com.getupside.dw.auth.PeerIndexDiff;
+import com.getupside.dw.auth.dao.PeerDAO;
+import com.getupside.dw.auth.model.Peer;
+import com.google.common.collect.ImmutableSetMultimap;
+import io.dropwizard.lifecycle.Managed;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+
+/**
+ * <p>Shares one copy of the allowed peers between every JVM on a host that uses the same directory and name, so that
+ * only one of them fetches the peers from the PeerDAO.</p>
+ * <p>Three files live in the directory (ideally on a tmpfs, e.g. a directory of its own under /dev/shm):</p>
+ * <ul>
+ *     <li>{@code <name>.lock} - the JVM holding an exclusive lock on it is the writer.  Everyone else tries to take the
+ *     lock every {@code electionIntervalMillis}, and since the OS drops the lock when its holder dies, a replacement
+ *     writer is elected within one interval of the old one going away.</li>
+ *     <li>{@code <name>.idx} - a {@link MappedPeerIndex} every JVM maps read-only and looks Peers up in.  The writer
+ *     never modifies it: a new version is written to a temporary file that atomically replaces it, so a reader still
+ *     mapping the old version keeps a consistent view of it.</li>
+ *     <li>{@code <name>.version} - a header holding the version of the newest index (and the writer's pid).  Readers
+ *     compare it with the version they have mapped on every lookup and remap when it moves ahead.</li>
+ * </ul>
+ * <p>Whoever can write these files decides who is allowed in, so {@code start} refuses to use them unless the directory
+ * and every one of them is owned by the user this JVM runs as and can't be written by its group or anyone else.  The
+ * directory is created readable by its owner only if it doesn't exist, as are the files, since the index holds the
+ * peers' passwords.  All the JVMs sharing them need to run as the same user.</p>
+ */
+public class SharedPeerStore implements Managed {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int HEADER_SIZE = 64;
+    private static final int HEADER_VERSION_OFFSET = 0;
+    private static final int HEADER_WRITER_PID_OFFSET = 8;
+    private static final long STARTUP_POLL_MILLIS = 100;
+    private static final FileAttribute<Set<PosixFilePermission>> OWNER_ONLY_DIRECTORY =
+        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
+    private static final FileAttribute<Set<PosixFilePermission>> OWNER_ONLY_FILE =
+        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+
+    private final PeerDAO peerDAO;
+    private final Path directory;
+    private final String name;
+    private final Path lockPath;
+    private final Path headerPath;
+    private final Path indexPath;
+    private final long electionIntervalMillis;
+    private final long startupTimeoutMillis;
+    private final List<Runnable> versionListeners = new CopyOnWriteArrayList<>();
+    private final Object remapLock = new Object();
+
+    private UserPrincipal user;
+    private FileChannel lockChannel;
+    private MappedByteBuffer header;
+    private ScheduledExecutorService scheduler;
+    private volatile FileLock writerLock;
+    private volatile MappedPeerIndex current;
+    private volatile long notifiedVersion;
+
+    /**
+     * @param peerDAO Where the writer fetches the allowed peers from
+     * @param directory The directory holding the shared files
+     * @param name The name shared by every JVM that should share the same peers
+     * @param electionIntervalMillis How often a JVM that isn't the writer tries to become it
+     * @param startupTimeoutMillis How long {@code start} waits for the writer to publish the first index
+     */
+    public SharedPeerStore(PeerDAO peerDAO, Path directory, String name, long electionIntervalMillis,
+                           long startupTimeoutMillis) {
+        this.peerDAO = checkNotNull(peerDAO, "Must provide non-null peerDAO");
+        this.directory = checkNotNull(directory, "Must provide non-null directory");
+        this.name = checkNotNull(name, "Must provide non-null name");
+        this.lockPath = directory.resolve(name + ".lock");
+        this.headerPath = directory.resolve(name + ".version");
+        this.indexPath = directory.resolve(name + ".idx");
+        this.electionIntervalMillis = electionIntervalMillis;
+        this.startupTimeoutMillis = startupTimeoutMillis;
+    }
+
+    /**
+     * Joins the election, becoming the writer and publishing the peers if nobody else is, and otherwise waits for the
+     * writer to publish them.
+     *
+     * @throws IllegalStateException if the directory or any of the files in it could be written by another user
+     */
+    @Override
+    public void start() throws Exception {
+        this.user = currentUser();
+        Files.createDirectories(this.directory, OWNER_ONLY_DIRECTORY);
+        // Once the directory is ours alone, nobody else can create or replace the files in it after they're checked
+        checkWritableByUserOnly(this.directory);
+        try (FileChannel channel = FileChannel.open(this.headerPath, EnumSet.of(StandardOpenOption.CREATE,
+                                                    StandardOpenOption.READ, StandardOpenOption.WRITE),
+                                                    OWNER_ONLY_FILE)) {
+            checkWritableByUserOnly(this.headerPath, LinkOption.NOFOLLOW_LINKS);
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        }
+        // Only ever used for locking: on POSIX, closing any other channel to this file would drop our lock
+        this.lockChannel = FileChannel.open(this.lockPath, EnumSet.of(StandardOpenOption.CREATE,
+                                            StandardOpenOption.WRITE), OWNER_ONLY_FILE);
+        checkWritableByUserOnly(this.lockPath, LinkOption.NOFOLLOW_LINKS);
+        if (Files.exists(this.indexPath, LinkOption.NOFOLLOW_LINKS)) {
+            checkWritableByUserOnly(this.indexPath, LinkOption.NOFOLLOW_LINKS);
+        }
+
+        if (!tryElect()) {
+            awaitPublished();
+        }
+        this.notifiedVersion = publishedVersion();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shared-peer-store-" + this.name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::tick, this.electionIntervalMillis, this.electionIntervalMillis,
+                                              TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+        if (this.writerLock != null) {
+            this.writerLock.release();
+            this.writerLock = null;
+        }
+        if (this.lockChannel != null) {
+            this.lockChannel.close();
+        }
+    }
+
+    /**
+     * @return True if this JVM is the one fetching and publishing the peers
+     */
+    public boolean isWriter() {
+        return this.writerLock != null;
+    }
+
+    /**
+     * @return The version of the newest published index, or 0 if none has been published yet
+     */
+    public long publishedVersion() {
+        return this.header.getLong(HEADER_VERSION_OFFSET);
+    }
+
+    /**
+     * Looks a Peer up directly in the mapped index, first mapping a newer version if one has been published.
+     *
+     * @return True if there's an allowed Peer named {@code username} with password {@code password}
+     */
+    public boolean contains(String username, String password) {
+        return index().contains(username, password);
+    }
+
+    /**
+     * Fetches all allowed peers from the PeerDAO again and publishes them to every JVM sharing this store.  Only the
+     * writer can do this.
+     *
+     * @return The usernames that were added, removed or had their password(s) changed by this reload
+     */
+    public synchronized PeerIndexDiff reload() {
+        checkState(isWriter(), "This process is not the writer of the shared peer index %s; reload the writer "
+            + "(pid %s) instead", this.indexPath, this.header.getLong(HEADER_WRITER_PID_OFFSET));
+        try {
+            return publish(this.peerDAO.findAll());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param listener Called, from a background thread, when this JVM notices another JVM published a new version
+     */
+    public void addVersionListener(Runnable listener) {
+        this.versionListeners.add(listener);
+    }
+
+    // package private for testing
+    void tick() {
+        try {
+            // Compare with what we had seen before any election: a JVM taking over publishes a version of its own,
+            // and whatever it cached from the peers the old writer published must be dropped all the same
+            long notified = this.notifiedVersion;
+            if (!isWriter()) {
+                tryElect();
+            }
+
+            long published = publishedVersion();
+            if (published > notified) {
+                this.notifiedVersion = published;
+                LOGGER.debug("Noticed version {} of shared peer index {}", published, this.indexPath);
+                this.versionListeners.forEach(Runnable::run);
+            }
+        }
+        catch (Exception e) {
+            // keep the schedule going; the next tick retries
+            LOGGER.warn("Failed to maintain shared peer index {}", this.indexPath, e);
+        }
+    }
+
+    private synchronized boolean tryElect() throws IOException {
+        FileLock lock;
+        try {
+            lock = this.lockChannel.tryLock();
+        }
+        catch (OverlappingFileLockException e) {
+            // another SharedPeerStore in this JVM is the writer
+            lock = null;
+        }
+        if (lock == null) {
+            return false;
+        }
+
+        LOGGER.info("Elected writer of shared peer index {}", this.indexPath);
+        try {
+            deleteTemporaryFiles();
+            publish(this.peerDAO.findAll());
+        }
+        catch (IOException | RuntimeException e) {
+            // Step down, so that a JVM that can fetch the peers takes over rather than everyone waiting on us
+            try {
+                lock.release();
+            }
+            catch (IOException releaseFailure) {
+                e.addSuppressed(releaseFailure);
+            }
+            throw e;
+        }
+        this.writerLock = lock;
+        return true;
+    }
+
+    private PeerIndexDiff publish(Set<Peer> peers) throws IOException {
+        // Start from the file on disk rather than our mapping: a writer that died between replacing the file and
+        // bumping the header may have left a newer version there than the header says
+        MappedPeerIndex previous = Files.exists(this.indexPath, LinkOption.NOFOLLOW_LINKS) ? map() : null;
+        ImmutableSetMultimap<String, Peer> before = previous == null
+            ? ImmutableSetMultimap.of()
+            : previous.peersByName();
+        long version = Math.max(publishedVersion(), previous == null ? 0 : previous.getVersion()) + 1;
+
+        Path temporary = this.directory.resolve(this.name + ".idx." + version + ".tmp");
+        write(temporary, MappedPeerIndex.encode(version, peers));
+        Files.move(temporary, this.indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        MappedPeerIndex published = map();
+        this.current = published;
+        this.notifiedVersion = version;
+        this.header.putLong(HEADER_WRITER_PID_OFFSET, pid());
+        this.header.putLong(HEADER_VERSION_OFFSET, version);
+
+        PeerIndexDiff diff = PeerIndexDiff.between(before, published.peersByName());
+        LOGGER.info("Published version {} of shared peer index {} with {} allowed peers: {}", version, this.indexPath,
+                    published.getPeerCount(), diff);
+        return diff;
+    }
+
+    private MappedPeerIndex index() {
+        MappedPeerIndex index = this.current;
+        if (index == null || publishedVersion() > index.getVersion()) {
+            index = remap();
+        }
+        return index;
+    }
+
+    private MappedPeerIndex remap() {
+        synchronized (this.remapLock) {
+            MappedPeerIndex index = this.current;
+            if (index != null && publishedVersion() <= index.getVersion()) {
+                return index;
+            }
+            try {
+                index = map();
+            }
+            catch (NoSuchFileException e) {
+                throw new IllegalStateException("Shared peer index " + this.indexPath + " has not been published", e);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.current = index;
+            return index;
+        }
+    }
+
+    private MappedPeerIndex map() throws IOException {
+        checkWritableByUserOnly(this.indexPath, LinkOption.NOFOLLOW_LINKS);
+        return MappedPeerIndex.map(this.indexPath);
+    }
+
+    // The directory may be reached through a link, as long as where it leads is ours; the files in it may not
+    private void checkWritableByUserOnly(Path path, LinkOption... options) throws IOException {
+        PosixFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, PosixFileAttributes.class, options);
+        }
+        catch (UnsupportedOperationException e) {
+            throw new IllegalStateException("Can't tell who may write " + path + "; the shared peer store needs a "
+                + "POSIX file system", e);
+        }
+        checkState(!attributes.isSymbolicLink(), "Refusing to use %s for the shared peer store: it is a symbolic link",
+                   path);
+        checkState(attributes.owner().equals(this.user), "Refusing to use %s for the shared peer store: it is owned "
+            + "by %s rather than %s", path, attributes.owner(), this.user);
+        Set<PosixFilePermission> permissions = attributes.permissions();
+        checkState(!permissions.contains(PosixFilePermission.GROUP_WRITE)
+                       && !permissions.contains(PosixFilePermission.OTHERS_WRITE),
+                   "Refusing to use %s for the shared peer store: other users may write it (%s)", path,
+                   PosixFilePermissions.toString(permissions));
+    }
+
+    private void awaitPublished() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.startupTimeoutMillis);
+        while (publishedVersion() == 0) {
+            checkState(System.nanoTime() - deadline < 0, "Timed out waiting for the writer (pid %s) to publish "
+                + "shared peer index %s", this.header.getLong(HEADER_WRITER_PID_OFFSET), this.indexPath);
+            Thread.sleep(STARTUP_POLL_MILLIS);
+        }
+        LOGGER.info("Using version {} of shared peer index {} published by pid {}", publishedVersion(),
+                    this.indexPath, this.header.getLong(HEADER_WRITER_PID_OFFSET));
+    }
+
+    private void write(Path path, ByteBuffer contents) throws IOException {
+        Files.createFile(path, OWNER_ONLY_FILE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            while (contents.hasRemaining()) {
+                channel.write(contents);
+            }
+        }
+    }
+
+    // A writer that died mid-publish may have left its temporary file behind
+    private void deleteTemporaryFiles() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, this.name + ".idx.*.tmp")) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // The owner of a file this JVM just created is whoever it runs as, however that's named in user.name
+    private static UserPrincipal currentUser() throws IOException {
+        Path probe = Files.createTempFile("shared-peer-store", ".owner");
+        try {
+            return Files.getOwner(probe);
+        }
+        finally {
+            Files.deleteIfExists(probe);
+        }
+    }
+
+    private static long pid() {
+        // "pid@hostname" on the JVMs we know of
+        String jvmName = ManagementFactory.getRuntimeMXBean().getName();
+        try {
+            return Long.parseLong(jvmName.substring(0, jvmName.indexOf('@')));
+        }
+        catch (RuntimeException e) {
+            return -1;
+        }
+    }
+}
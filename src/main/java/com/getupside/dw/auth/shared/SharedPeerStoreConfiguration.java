@@ -0,0 +1,89 @@
+package com.getupside.dw.auth.shared;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+
+/**
+ * <p>Configuration of a {@link SharedPeerStore}, e.g.</p>
+ * <pre>
+ * sharedStore:
+ *   directory: /dev/shm/my-service
+ *   electionInterval: 5s
+ * </pre>
+ * <p>There's no default directory: a world-writable one such as /dev/shm itself or /tmp would let any local user plant
+ * files there first.  Use one only the user running the JVMs can write.</p>
+ */
+public class SharedPeerStoreConfiguration {
+
+    @JsonProperty("directory")
+    private String directory;
+
+    @JsonProperty("name")
+    private String name;
+
+    @JsonProperty("electionInterval")
+    private Duration electionInterval = Duration.seconds(5);
+
+    @JsonProperty("startupTimeout")
+    private Duration startupTimeout = Duration.seconds(30);
+
+    /**
+     * @return The directory holding the shared files; one under a tmpfs such as /dev/shm keeps them off disk
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param directory The directory holding the shared files.  Required; it must be owned by the user running the
+     * JVMs and not writable by anyone else, and is created that way if it doesn't exist
+     */
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return The name of the shared files, or null to derive one from the secret coordinates
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name The name of the shared files.  JVMs that use the same name share the same peers, so if not set it's
+     * derived from the secret coordinates.
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return How often a JVM that isn't the writer tries to become it, and checks for a new version
+     */
+    public Duration getElectionInterval() {
+        return electionInterval;
+    }
+
+    /**
+     * @param electionInterval How often a JVM that isn't the writer tries to become it, and checks for a new version.
+     * Defaults to 5s
+     */
+    public void setElectionInterval(Duration electionInterval) {
+        this.electionInterval = electionInterval;
+    }
+
+    /**
+     * @return How long a starting JVM waits for the writer to publish the peers
+     */
+    public Duration getStartupTimeout() {
+        return startupTimeout;
+    }
+
+    /**
+     * @param startupTimeout How long a starting JVM waits for the writer to publish the peers.  Defaults to 30s
+     */
+    public void setStartupTimeout(Duration startupTimeout) {
+        this.startupTimeout = startupTimeout;
+    }
+}
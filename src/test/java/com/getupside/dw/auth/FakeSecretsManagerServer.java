@@ -0,0 +1,137 @@
+package com.getupside.dw.auth;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.secretsmanager.AWSSecretsManager;
+import com.amazonaws.services.secretsmanager.AWSSecretsManagerClientBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>An in-process stand-in for the AWS Secrets Manager {@code GetSecretValue} API, good enough to point a real
+ * AWSSecretsManager client at when a test should exercise the whole SDK round trip without needing AWS.</p>
+ * <p>Secrets can be replaced at any time with {@code putSecret} to simulate a rotation.</p>
+ */
+public class FakeSecretsManagerServer {
+
+    private static final String JSON_CONTENT_TYPE = "application/x-amz-json-1.1";
+    private static final String GET_SECRET_VALUE_TARGET = "secretsmanager.GetSecretValue";
+    private static final String REGION = "us-east-1";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Map<String, String>> secrets = new ConcurrentHashMap<>();
+    private final AtomicLong getSecretValueCalls = new AtomicLong();
+    private ExecutorService executor;
+    private HttpServer server;
+
+    /**
+     * @param secretId The secret coordinate the secret is stored at
+     * @param secret The (username, password) pairs to hand back as the SecretString of {@code secretId}
+     */
+    public void putSecret(String secretId, Map<String, String> secret) {
+        this.secrets.put(secretId, ImmutableMap.copyOf(secret));
+    }
+
+    public void start() throws IOException {
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * @return The base URL of this server, e.g. "http://127.0.0.1:54321"
+     */
+    public String getEndpoint() {
+        InetSocketAddress address = this.server.getAddress();
+        return String.format("http://%s:%d", address.getHostString(), address.getPort());
+    }
+
+    /**
+     * @return How many GetSecretValue requests this server has answered so far
+     */
+    public long getSecretValueCalls() {
+        return this.getSecretValueCalls.get();
+    }
+
+    /**
+     * @param endpoint The base URL of a running FakeSecretsManagerServer
+     * @return A real AWSSecretsManager client, with throwaway credentials, that talks to {@code endpoint}
+     */
+    public static AWSSecretsManager createClient(String endpoint) {
+        return AWSSecretsManagerClientBuilder.standard()
+            .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, REGION))
+            .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("fake", "fake")))
+            .build();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+            if (!GET_SECRET_VALUE_TARGET.equals(target)) {
+                respond(exchange, 400, error("UnknownOperationException", "Unsupported operation " + target));
+                return;
+            }
+
+            JsonNode request = this.objectMapper.readTree(exchange.getRequestBody());
+            String secretId = request.path("SecretId").asText();
+            this.getSecretValueCalls.incrementAndGet();
+
+            Map<String, String> secret = this.secrets.get(secretId);
+            if (secret == null) {
+                respond(exchange, 400, error("ResourceNotFoundException",
+                                             "Secrets Manager can't find the specified secret."));
+                return;
+            }
+
+            ObjectNode response = this.objectMapper.createObjectNode();
+            response.put("ARN", "arn:aws:secretsmanager:" + REGION + ":000000000000:secret:" + secretId);
+            response.put("Name", secretId);
+            response.put("VersionId", UUID.randomUUID().toString());
+            response.put("SecretString", this.objectMapper.writeValueAsString(secret));
+            respond(exchange, 200, response);
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private ObjectNode error(String type, String message) {
+        ObjectNode error = this.objectMapper.createObjectNode();
+        error.put("__type", type);
+        error.put("message", message);
+        return error;
+    }
+
+    private void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = this.objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        exchange.getResponseHeaders().set("x-amzn-RequestId", UUID.randomUUID().toString());
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.getupside.dw.auth;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.getupside.dw.auth.model.Peer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.dropwizard.Application;
+import io.dropwizard.Configuration;
+import io.dropwizard.auth.Auth;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.testing.ConfigOverride;
+import io.dropwizard.testing.DropwizardTestSupport;
+import io.dropwizard.testing.ResourceHelpers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * <p>End-to-end load test harness.  Boots a small Dropwizard app that registers its authenticator with
+ * {@code AllowedPeerConfiguration.registerAuthenticator}, backed by a {@code FakeSecretsManagerServer} instead of AWS,
+ * and drives it with concurrent clients sending a mix of valid credentials, invalid credentials, and credentials of a
+ * peer whose secret is rotated while the test runs.</p>
+ *
+ * <p>Each authenticator mode (plain, caching, and caching with a reload after every rotation) reports throughput, a
+ * latency histogram per kind of request and error rates.  This is not part of the regular build; run it with:</p>
+ * <pre>
+ * mvn test -Dtest=LoadTestAllowedPeerConfiguration -Dloadtest=true
+ * </pre>
+ * <p>and tune it with {@code -Dloadtest.threads}, {@code -Dloadtest.durationSeconds}, {@code -Dloadtest.peers} and
+ * {@code -Dloadtest.rotationIntervalMillis}.</p>
+ */
+public class LoadTestAllowedPeerConfiguration {
+
+    private static final String GENERAL_COORDINATE = "loadtest/peers/general";
+    private static final String ROTATING_COORDINATE = "loadtest/peers/rotating";
+    private static final String ROTATING_USER = "rotating_user";
+
+    private static final int THREADS = Integer.getInteger("loadtest.threads", 16);
+    private static final int PEERS = Integer.getInteger("loadtest.peers", 1000);
+    private static final long DURATION_SECONDS = Long.getLong("loadtest.durationSeconds", 20);
+    private static final long ROTATION_INTERVAL_MILLIS = Long.getLong("loadtest.rotationIntervalMillis", 2000);
+
+    // Out of every 100 requests, how many use a wrong password and how many use the rotating peer
+    private static final int INVALID_PERCENT = 20;
+    private static final int ROTATING_PERCENT = 5;
+
+    private enum Kind { VALID, INVALID, ROTATING }
+
+    private enum Mode {
+        PLAIN(false),
+        CACHING(false, ConfigOverride.config("allowedPeers.cachePolicy", "maximumSize=10000")),
+        // caching, plus every rotation is followed by a call to the reload-allowed-peers admin task
+        RELOADING(true, ConfigOverride.config("allowedPeers.cachePolicy", "maximumSize=10000"));
+
+        private final boolean reloadOnRotation;
+        private final ConfigOverride[] overrides;
+
+        Mode(boolean reloadOnRotation, ConfigOverride... overrides) {
+            this.reloadOnRotation = reloadOnRotation;
+            this.overrides = overrides;
+        }
+    }
+
+    private FakeSecretsManagerServer secretsManager;
+    private List<String> usernames;
+    private Map<String, String> passwords;
+    private volatile String rotatingPassword;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue("Load tests only run with -Dloadtest=true", Boolean.getBoolean("loadtest"));
+
+        // Let every client thread keep its connection alive instead of the JDK default of 5
+        System.setProperty("http.maxConnections", String.valueOf(THREADS));
+
+        ImmutableMap.Builder<String, String> peers = ImmutableMap.builder();
+        ImmutableList.Builder<String> names = ImmutableList.builder();
+        for (int i = 0; i < PEERS; i++) {
+            String username = "peer_" + i;
+            peers.put(username, UUID.randomUUID().toString());
+            names.add(username);
+        }
+        this.passwords = peers.build();
+        this.usernames = names.build();
+
+        this.secretsManager = new FakeSecretsManagerServer();
+        this.secretsManager.putSecret(GENERAL_COORDINATE, this.passwords);
+        rotate();
+        this.secretsManager.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (this.secretsManager != null) {
+            this.secretsManager.stop();
+        }
+    }
+
+    @Test
+    public void testPlainAuthenticator() throws Exception {
+        run(Mode.PLAIN);
+    }
+
+    @Test
+    public void testCachingAuthenticator() throws Exception {
+        run(Mode.CACHING);
+    }
+
+    @Test
+    public void testReloadingAuthenticator() throws Exception {
+        run(Mode.RELOADING);
+    }
+
+    private void run(Mode mode) throws Exception {
+        List<ConfigOverride> overrides = new ArrayList<>(ImmutableList.copyOf(mode.overrides));
+        overrides.add(ConfigOverride.config("secretsManagerEndpoint", this.secretsManager.getEndpoint()));
+
+        DropwizardTestSupport<LoadTestConfiguration> app =
+            new DropwizardTestSupport<>(LoadTestApplication.class,
+                                        ResourceHelpers.resourceFilePath("loadtest.yml"),
+                                        overrides.toArray(new ConfigOverride[0]));
+        app.before();
+        try {
+            MetricRegistry metrics = new MetricRegistry();
+            URL reloadTask = mode.reloadOnRotation
+                ? new URL("http://localhost:" + app.getAdminPort() + "/tasks/" + ReloadAllowedPeersTask.NAME)
+                : null;
+            long elapsed = drive(new URL("http://localhost:" + app.getLocalPort() + "/ping"), reloadTask, metrics);
+            report(mode, metrics, elapsed);
+
+            assertEquals("Requests failed or got an unexpected response", 0,
+                         metrics.counter("failed").getCount() + metrics.counter("unexpected").getCount());
+        }
+        finally {
+            app.after();
+        }
+    }
+
+    /**
+     * @param reloadTask If not null, the admin task to POST to after every rotation
+     * @return elapsed nanoseconds the clients were running for
+     */
+    private long drive(URL url, URL reloadTask, MetricRegistry metrics) throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(THREADS);
+        ScheduledExecutorService rotator = Executors.newSingleThreadScheduledExecutor();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        try {
+            rotator.scheduleAtFixedRate(() -> {
+                rotate();
+                if (reloadTask != null) {
+                    reload(reloadTask, metrics);
+                }
+            }, ROTATION_INTERVAL_MILLIS, ROTATION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(clients.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        request(url, metrics);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        }
+        finally {
+            rotator.shutdownNow();
+            clients.shutdownNow();
+        }
+    }
+
+    private void request(URL url, MetricRegistry metrics) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int roll = random.nextInt(100);
+        Kind kind = roll < ROTATING_PERCENT ? Kind.ROTATING
+            : roll < ROTATING_PERCENT + INVALID_PERCENT ? Kind.INVALID
+            : Kind.VALID;
+
+        String username;
+        String password;
+        if (kind == Kind.ROTATING) {
+            username = ROTATING_USER;
+            password = this.rotatingPassword;
+        }
+        else {
+            username = this.usernames.get(random.nextInt(this.usernames.size()));
+            password = kind == Kind.VALID ? this.passwords.get(username) : "not-" + this.passwords.get(username);
+        }
+
+        Timer timer = metrics.timer(name(kind), () -> new Timer(new UniformReservoir()));
+        int status;
+        try (Timer.Context ignored = timer.time()) {
+            status = get(url, username, password);
+        }
+        catch (IOException e) {
+            metrics.counter("failed").inc();
+            return;
+        }
+
+        if (kind == Kind.ROTATING && status == 401) {
+            // the rotated password hasn't been picked up by the authenticator (yet)
+            metrics.counter("stale").inc();
+        }
+        else if (status != (kind == Kind.INVALID ? 401 : 200)) {
+            metrics.counter("unexpected").inc();
+        }
+    }
+
+    private int get(URL url, String username, String password) throws IOException {
+        String token = Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Authorization", "Basic " + token);
+        int status = connection.getResponseCode();
+
+        // Drain the body so the connection goes back into the keep-alive pool
+        InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (body != null) {
+            try (InputStream in = body) {
+                byte[] buffer = new byte[1024];
+                while (in.read(buffer) != -1) {
+                    // discard
+                }
+            }
+        }
+        return status;
+    }
+
+    private void reload(URL reloadTask, MetricRegistry metrics) {
+        try (Timer.Context ignored = metrics.timer("reload").time()) {
+            HttpURLConnection connection = (HttpURLConnection) reloadTask.openConnection();
+            connection.setRequestMethod("POST");
+            if (connection.getResponseCode() != 200) {
+                metrics.counter("unexpected").inc();
+            }
+            connection.disconnect();
+        }
+        catch (IOException e) {
+            metrics.counter("failed").inc();
+        }
+    }
+
+    private void rotate() {
+        this.rotatingPassword = UUID.randomUUID().toString();
+        this.secretsManager.putSecret(ROTATING_COORDINATE, ImmutableMap.of(ROTATING_USER, this.rotatingPassword));
+    }
+
+    private void report(Mode mode, MetricRegistry metrics, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long total = 0;
+        for (Kind kind : Kind.values()) {
+            total += metrics.timer(name(kind)).getCount();
+        }
+        Counter failed = metrics.counter("failed");
+        Counter unexpected = metrics.counter("unexpected");
+        Counter stale = metrics.counter("stale");
+
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%n=== %s: %d threads, %d peers, %.1fs ===%n", mode, THREADS, PEERS, seconds));
+        out.append(String.format("throughput: %.0f req/s (%d requests)%n", total / seconds, total));
+        out.append(String.format("errors: %d failed, %d unexpected status (%.4f%%)%n", failed.getCount(),
+                                 unexpected.getCount(),
+                                 100.0 * (failed.getCount() + unexpected.getCount()) / Math.max(total, 1)));
+        out.append(String.format("rotation: %d stale rejections, %d GetSecretValue calls, %d reloads (mean %.1f ms)%n",
+                                 stale.getCount(), this.secretsManager.getSecretValueCalls(),
+                                 metrics.timer("reload").getCount(),
+                                 metrics.timer("reload").getSnapshot().getMean() / 1e6));
+        out.append(String.format("%-9s %9s %9s %9s %9s %9s %9s  (latency in us)%n",
+                                 "kind", "count", "p50", "p90", "p99", "p99.9", "max"));
+        for (Kind kind : Kind.values()) {
+            Timer timer = metrics.timer(name(kind));
+            Snapshot snapshot = timer.getSnapshot();
+            out.append(String.format("%-9s %9d %9.0f %9.0f %9.0f %9.0f %9d%n", kind, timer.getCount(),
+                                     snapshot.getMedian() / 1e3, snapshot.getValue(0.90) / 1e3,
+                                     snapshot.get99thPercentile() / 1e3, snapshot.get999thPercentile() / 1e3,
+                                     snapshot.getMax() / 1000));
+        }
+        System.out.print(out);
+    }
+
+    private static String name(Kind kind) {
+        return MetricRegistry.name("latency", kind.name().toLowerCase());
+    }
+
+    /**
+     * Minimal service that protects a single endpoint with the authenticator under test
+     */
+    public static class LoadTestApplication extends Application<LoadTestConfiguration> {
+
+        @Override
+        public void run(LoadTestConfiguration configuration, Environment environment) {
+            AllowedPeerConfiguration allowedPeers = configuration.getAllowedPeers();
+            allowedPeers.setAWSSecretsManager(
+                FakeSecretsManagerServer.createClient(configuration.getSecretsManagerEndpoint()));
+            allowedPeers.registerAuthenticator(environment);
+            environment.jersey().register(new PingResource());
+        }
+    }
+
+    public static class LoadTestConfiguration extends Configuration {
+
+        @JsonProperty("allowedPeers")
+        private AllowedPeerConfiguration allowedPeers = new AllowedPeerConfiguration();
+
+        @JsonProperty("secretsManagerEndpoint")
+        private String secretsManagerEndpoint;
+
+        public AllowedPeerConfiguration getAllowedPeers() {
+            return allowedPeers;
+        }
+
+        public String getSecretsManagerEndpoint() {
+            return secretsManagerEndpoint;
+        }
+    }
+
+    @Path("/ping")
+    @Produces(MediaType.TEXT_PLAIN)
+    public static class PingResource {
+
+        @GET
+        public String ping(@Auth Peer peer) {
+            return peer.getName();
+        }
+    }
+}
@@ -46,4 +46,28 @@ public class TestAllowedPeerAuthenticator {
         Optional<Peer> peer = authenticator.authenticate(new BasicCredentials("foo", "secret2"));
         assertFalse(peer.isPresent());
     }
+
+    @Test
+    public void testReloadReportsDiff() throws AuthenticationException {
+        PeerDAO reloadingDAO = createNiceMock(PeerDAO.class);
+        expect(reloadingDAO.findAll()).andReturn(allPeers).once();
+        expect(reloadingDAO.findAll()).andReturn(ImmutableSet.of(new Peer("foo", "rotated"),
+                                                                 new Peer("baz", "secret3"))).once();
+        replay(reloadingDAO);
+
+        AllowedPeerAuthenticator reloading = new AllowedPeerAuthenticator(reloadingDAO);
+        PeerIndexDiff diff = reloading.reload();
+
+        assertEquals(ImmutableSet.of("baz"), diff.getAdded());
+        assertEquals(ImmutableSet.of("bar"), diff.getRemoved());
+        assertEquals(ImmutableSet.of("foo"), diff.getChanged());
+        assertFalse(reloading.authenticate(new BasicCredentials("foo", "secret1")).isPresent());
+        assertTrue(reloading.authenticate(new BasicCredentials("foo", "rotated")).isPresent());
+        assertTrue(reloading.authenticate(new BasicCredentials("baz", "secret3")).isPresent());
+    }
+
+    @Test
+    public void testReloadWithoutChanges() {
+        assertTrue(authenticator.reload().isEmpty());
+    }
 }
@@ -0,0 +1,128 @@
+package com.getupside.dw.auth;
+
+import com.getupside.dw.auth.dao.PeerDAO;
+import com.getupside.dw.auth.model.Peer;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import io.dropwizard.auth.AuthenticationException;
+
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Optional;
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Tests the certificate authenticator maps client certificates to Peers (or keeps 'em out) as appropriate</p>
+ */
+public class TestAllowedPeerCertificateAuthenticator {
+
+    private static final byte[] CERTIFICATE = {1, 2, 3};
+    private static final byte[] PUBLIC_KEY = {4, 5, 6};
+    private static final byte[] OTHER_PUBLIC_KEY = {7, 8, 9};
+
+    private PeerDAO peerDAO;
+    private AllowedPeerCertificateAuthenticator authenticator;
+
+    @Before
+    public void setUp() {
+        peerDAO = createNiceMock(PeerDAO.class);
+        expect(peerDAO.findAllCertificateFingerprints()).andReturn(ImmutableMap.of(
+            "sha256:" + Hashing.sha256().hashBytes(CERTIFICATE), "foo",
+            "spki-sha256:" + Hashing.sha256().hashBytes(PUBLIC_KEY), "bar")).anyTimes();
+        replay(peerDAO);
+
+        authenticator = new AllowedPeerCertificateAuthenticator(peerDAO, CacheBuilderSpec.parse("maximumSize=100"));
+    }
+
+    @Test
+    public void testCertificateFingerprintIsAllowed() throws Exception {
+        Optional<Peer> peer = authenticator.authenticate(
+            new ClientCertificateCredentials(certificate(CERTIFICATE, OTHER_PUBLIC_KEY), null));
+        assertTrue(peer.isPresent());
+        assertEquals("foo", peer.get().getName());
+    }
+
+    @Test
+    public void testPublicKeyFingerprintIsAllowed() throws Exception {
+        Optional<Peer> peer = authenticator.authenticate(
+            new ClientCertificateCredentials(certificate(new byte[] {0}, PUBLIC_KEY), null));
+        assertTrue(peer.isPresent());
+        assertEquals("bar", peer.get().getName());
+    }
+
+    @Test
+    public void testUnknownCertificateIsNotAllowed() throws Exception {
+        Optional<Peer> peer = authenticator.authenticate(
+            new ClientCertificateCredentials(certificate(new byte[] {0}, OTHER_PUBLIC_KEY), null));
+        assertFalse(peer.isPresent());
+    }
+
+    @Test
+    public void testSessionIsOnlyLookedUpOnce() throws Exception {
+        X509Certificate certificate = createNiceMock(X509Certificate.class);
+        expect(certificate.getEncoded()).andReturn(CERTIFICATE).once();
+        replay(certificate);
+
+        ClientCertificateCredentials credentials = new ClientCertificateCredentials(certificate, "session-1");
+        assertEquals("foo", authenticator.authenticate(credentials).get().getName());
+        assertEquals("foo", authenticator.authenticate(credentials).get().getName());
+        verify(certificate);
+    }
+
+    @Test
+    public void testSessionOnlyRemembersItsOwnCertificate() throws Exception {
+        X509Certificate allowed = certificate(CERTIFICATE, OTHER_PUBLIC_KEY);
+        X509Certificate unknown = certificate(new byte[] {0}, OTHER_PUBLIC_KEY);
+
+        assertTrue(authenticator.authenticate(new ClientCertificateCredentials(allowed, "session-1")).isPresent());
+        assertFalse(authenticator.authenticate(new ClientCertificateCredentials(unknown, "session-1")).isPresent());
+    }
+
+    @Test
+    public void testEmptySessionIdIsNotRemembered() throws Exception {
+        X509Certificate allowed = certificate(CERTIFICATE, OTHER_PUBLIC_KEY);
+        X509Certificate unknown = certificate(new byte[] {0}, OTHER_PUBLIC_KEY);
+
+        assertTrue(authenticator.authenticate(new ClientCertificateCredentials(allowed, "")).isPresent());
+        assertFalse(authenticator.authenticate(new ClientCertificateCredentials(unknown, "")).isPresent());
+    }
+
+    @Test
+    public void testReloadForgetsRemovedCertificate() throws Exception {
+        PeerDAO reloadingDAO = createNiceMock(PeerDAO.class);
+        expect(reloadingDAO.findAllCertificateFingerprints()).andReturn(ImmutableMap.of(
+            "sha256:" + Hashing.sha256().hashBytes(CERTIFICATE), "foo")).once();
+        expect(reloadingDAO.findAllCertificateFingerprints()).andReturn(ImmutableMap.of()).anyTimes();
+        replay(reloadingDAO);
+        AllowedPeerCertificateAuthenticator reloading =
+            new AllowedPeerCertificateAuthenticator(reloadingDAO, CacheBuilderSpec.parse("maximumSize=100"));
+
+        ClientCertificateCredentials credentials =
+            new ClientCertificateCredentials(certificate(CERTIFICATE, OTHER_PUBLIC_KEY), "session-1");
+        assertTrue(reloading.authenticate(credentials).isPresent());
+
+        PeerIndexDiff diff = reloading.reload();
+        assertEquals(ImmutableSet.of("foo"), diff.getRemoved());
+        assertFalse(reloading.authenticate(credentials).isPresent());
+    }
+
+    private static X509Certificate certificate(byte[] encoded, byte[] publicKey) throws CertificateEncodingException {
+        PublicKey key = createNiceMock(PublicKey.class);
+        expect(key.getEncoded()).andReturn(publicKey).anyTimes();
+        replay(key);
+
+        X509Certificate certificate = createNiceMock(X509Certificate.class);
+        expect(certificate.getEncoded()).andReturn(encoded).anyTimes();
+        expect(certificate.getPublicKey()).andReturn(key).anyTimes();
+        replay(certificate);
+        return certificate;
+    }
+}
@@ -5,18 +5,54 @@ import com.amazonaws.services.secretsmanager.model.GetSecretValueRequest;
 import com.amazonaws.services.secretsmanager.model.GetSecretValueResult;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.cache.CacheBuilderSpec;
+import com.getupside.dw.auth.metrics.TimedAuthFilter;
 import com.getupside.dw.auth.model.Peer;
+import com.getupside.dw.auth.quota.PeerQuotaConfiguration;
+import com.getupside.dw.auth.quota.PeerQuotaFilter;
+import com.getupside.dw.auth.shared.SharedPeerStoreConfiguration;
 import com.google.common.collect.ImmutableList;
+import io.dropwizard.auth.AuthDynamicFeature;
 import io.dropwizard.auth.AuthenticationException;
 import io.dropwizard.auth.CachingAuthenticator;
+import io.dropwizard.auth.basic.BasicCredentialAuthFilter;
 import io.dropwizard.auth.basic.BasicCredentials;
+import io.dropwizard.auth.chained.ChainedAuthFilter;
+import io.dropwizard.jersey.setup.JerseyEnvironment;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import io.dropwizard.servlets.tasks.Task;
+import io.dropwizard.setup.AdminEnvironment;
+import io.dropwizard.setup.Environment;
+import org.easymock.Capture;
+import org.easymock.CaptureType;
 
+import javax.annotation.security.PermitAll;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.SecurityContext;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.newCapture;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -29,6 +65,31 @@ public class TestAllowedPeerConfiguration {
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
 
+    private Capture<Object> registered;
+    private Capture<Task> tasks;
+    private Environment environment;
+
+    @Before
+    public void setUp() {
+        registered = newCapture(CaptureType.ALL);
+        JerseyEnvironment jersey = createNiceMock(JerseyEnvironment.class);
+        jersey.register(capture(registered));
+        expectLastCall().anyTimes();
+        replay(jersey);
+
+        tasks = newCapture(CaptureType.ALL);
+        AdminEnvironment admin = createNiceMock(AdminEnvironment.class);
+        admin.addTask(capture(tasks));
+        expectLastCall().anyTimes();
+        replay(admin);
+
+        environment = createNiceMock(Environment.class);
+        expect(environment.jersey()).andReturn(jersey).anyTimes();
+        expect(environment.admin()).andReturn(admin).anyTimes();
+        expect(environment.lifecycle()).andReturn(createNiceMock(LifecycleEnvironment.class)).anyTimes();
+        expect(environment.metrics()).andReturn(new MetricRegistry()).anyTimes();
+        replay(environment);
+    }
 
     @Test
     public void testCreateAuthentorWithBadConfiguration() {
@@ -77,4 +138,145 @@ public class TestAllowedPeerConfiguration {
         expectedException.expect(NullPointerException.class);
         config.createCachingAuthenticator(new MetricRegistry());
     }
+
+    @Test
+    public void testRegisterBasicAuth() {
+        mockedConfiguration().registerAuthenticator(environment);
+
+        assertTrue(authFilter() instanceof BasicCredentialAuthFilter);
+        assertFalse(registered.getValues().stream().anyMatch(component -> component instanceof PeerQuotaFilter));
+        assertEquals(1, tasks.getValues().size());
+        assertEquals(ReloadAllowedPeersTask.NAME, tasks.getValue().getName());
+    }
+
+    @Test
+    public void testRegisterChainsCertificateBeforeBasicAuth() throws Exception {
+        AllowedPeerConfiguration config = mockedConfiguration();
+        config.setClientCertificates(true);
+        config.registerAuthenticator(environment);
+
+        ContainerRequestFilter authFilter = authFilter();
+        assertTrue(authFilter instanceof ChainedAuthFilter);
+
+        // An unknown certificate alongside valid BasicAuth: the certificate is looked up first, then BasicAuth lets
+        // the request in
+        PublicKey publicKey = createNiceMock(PublicKey.class);
+        expect(publicKey.getEncoded()).andReturn(new byte[] {1}).anyTimes();
+        replay(publicKey);
+        X509Certificate certificate = createNiceMock(X509Certificate.class);
+        expect(certificate.getEncoded()).andReturn(new byte[] {2}).once();
+        expect(certificate.getPublicKey()).andReturn(publicKey).anyTimes();
+        replay(certificate);
+
+        MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+        headers.putSingle(HttpHeaders.AUTHORIZATION, "Basic " + Base64.getEncoder().encodeToString(
+            "mock_user:some_secret".getBytes(StandardCharsets.UTF_8)));
+        Capture<SecurityContext> authenticated = newCapture();
+        ContainerRequestContext request = createNiceMock(ContainerRequestContext.class);
+        expect(request.getProperty(ClientCertificateAuthFilter.CERTIFICATE_ATTRIBUTE))
+            .andReturn(new X509Certificate[] {certificate}).anyTimes();
+        expect(request.getHeaders()).andReturn(headers).anyTimes();
+        expect(request.getSecurityContext()).andReturn(createNiceMock(SecurityContext.class)).anyTimes();
+        request.setSecurityContext(capture(authenticated));
+        expectLastCall().anyTimes();
+        replay(request);
+
+        authFilter.filter(request);
+        assertEquals("mock_user", authenticated.getValue().getUserPrincipal().getName());
+        verify(certificate);
+    }
+
+    @Test
+    public void testRegisterTimesAuthFilter() {
+        AllowedPeerConfiguration config = mockedConfiguration();
+        config.setTimingSampleRate(1);
+        config.registerAuthenticator(environment);
+
+        assertTrue(authFilter() instanceof TimedAuthFilter);
+    }
+
+    @Test
+    public void testRegisterQuotaFilter() {
+        AllowedPeerConfiguration config = mockedConfiguration();
+        config.setDefaultQuota(new PeerQuotaConfiguration());
+        config.registerAuthenticator(environment);
+
+        assertTrue(registered.getValues().stream().anyMatch(component -> component instanceof PeerQuotaFilter));
+    }
+
+    @Test
+    public void testRegisterWithNullQuotas() {
+        AllowedPeerConfiguration config = mockedConfiguration();
+        config.setQuotas(null);
+
+        expectedException.expect(NullPointerException.class);
+        expectedException.expectMessage("quotas");
+        config.registerAuthenticator(environment);
+    }
+
+    @Test
+    public void testRegisterWithTimingSampleRateOutOfRange() {
+        AllowedPeerConfiguration config = mockedConfiguration();
+        config.setTimingSampleRate(1.5);
+
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("timingSampleRate");
+        config.registerAuthenticator(environment);
+    }
+
+    @Test
+    public void testRegisterWithSharedStoreAndClientCertificates() {
+        AllowedPeerConfiguration config = mockedConfiguration();
+        config.setClientCertificates(true);
+        config.setSharedStore(new SharedPeerStoreConfiguration());
+
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("sharedStore can't be combined with clientCertificates");
+        config.registerAuthenticator(environment);
+    }
+
+    private static AllowedPeerConfiguration mockedConfiguration() {
+        AllowedPeerConfiguration config = new AllowedPeerConfiguration();
+        config.setSecretCoordinates("mock:/fake_allowed_peers_with_certificates.json");
+        // every coordinate is a mock, so the client is never called
+        config.setAWSSecretsManager(createNiceMock(AWSSecretsManager.class));
+        return config;
+    }
+
+    /**
+     * @return The auth filter the registered AuthDynamicFeature puts in front of a {@code @PermitAll} resource
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ContainerRequestFilter authFilter() {
+        List<AuthDynamicFeature> features = registered.getValues().stream()
+            .filter(component -> component instanceof AuthDynamicFeature)
+            .map(component -> (AuthDynamicFeature) component)
+            .collect(Collectors.toList());
+        assertEquals(1, features.size());
+
+        ResourceInfo resourceInfo = createNiceMock(ResourceInfo.class);
+        try {
+            expect(resourceInfo.getResourceMethod()).andReturn(PermitAllResource.class.getMethod("get")).anyTimes();
+        }
+        catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+        expect(resourceInfo.getResourceClass()).andReturn((Class) PermitAllResource.class).anyTimes();
+        replay(resourceInfo);
+        Capture<Object> filter = newCapture();
+        FeatureContext context = createNiceMock(FeatureContext.class);
+        expect(context.register(capture(filter))).andReturn(context).anyTimes();
+        replay(context);
+
+        features.get(0).configure(resourceInfo, context);
+        return (ContainerRequestFilter) filter.getValue();
+    }
+
+    @PermitAll
+    public static class PermitAllResource {
+        @PermitAll
+        public String get() {
+            return "ok";
+        }
+    }
 }
@@ -0,0 +1,160 @@
+package com.getupside.dw.auth;
+
+import com.codahale.metrics.MetricRegistry;
+import com.getupside.dw.auth.dao.PeerDAO;
+import com.getupside.dw.auth.model.AllowedPeers;
+import com.getupside.dw.auth.model.Peer;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.dropwizard.auth.Authenticator;
+import io.dropwizard.auth.CachingAuthenticator;
+import io.dropwizard.auth.basic.BasicCredentials;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Tests the reload task only invalidates cached credentials of peers that changed, including any a lookup under way
+ * caches after the reload</p>
+ */
+public class TestReloadAllowedPeersTask {
+
+    private AllowedPeerAuthenticator authenticator;
+    private DrainingCachingAuthenticator<BasicCredentials> cachingAuthenticator;
+    private ReloadAllowedPeersTask task;
+
+    @Before
+    public void setUp() {
+        PeerDAO peerDAO = createNiceMock(PeerDAO.class);
+        expect(peerDAO.findAll()).andReturn(ImmutableSet.of(new Peer("foo", "secret1"),
+                                                            new Peer("bar", "secret2"))).once();
+        expect(peerDAO.findAll()).andReturn(ImmutableSet.of(new Peer("foo", "rotated"),
+                                                            new Peer("bar", "secret2"))).anyTimes();
+        replay(peerDAO);
+
+        authenticator = new AllowedPeerAuthenticator(peerDAO);
+        cachingAuthenticator = caching(authenticator);
+        task = new ReloadAllowedPeersTask(authenticator, cachingAuthenticator);
+    }
+
+    @Test
+    public void testReloadInvalidatesOnlyChangedPeers() throws Exception {
+        assertTrue(cachingAuthenticator.authenticate(new BasicCredentials("foo", "secret1")).isPresent());
+        assertTrue(cachingAuthenticator.authenticate(new BasicCredentials("bar", "secret2")).isPresent());
+        assertEquals(2, cachingAuthenticator.size());
+
+        StringWriter output = new StringWriter();
+        task.execute(ImmutableMultimap.of(), new PrintWriter(output));
+
+        assertTrue(output.toString().contains("changed: 1 [foo]"));
+        assertEquals(1, cachingAuthenticator.size());
+        assertFalse(cachingAuthenticator.authenticate(new BasicCredentials("foo", "secret1")).isPresent());
+        assertTrue(cachingAuthenticator.authenticate(new BasicCredentials("foo", "rotated")).isPresent());
+    }
+
+    @Test(timeout = 10000)
+    public void testReloadInvalidatesLookupUnderWay() throws Exception {
+        CountDownLatch checked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Checks the peers, then stalls before the CachingAuthenticator gets to cache the outcome
+        DrainingCachingAuthenticator<BasicCredentials> stallingCache = caching(credentials -> {
+            Optional<Peer> peer = authenticator.authenticate(credentials);
+            checked.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+            return peer;
+        });
+        ReloadAllowedPeersTask stallingTask = new ReloadAllowedPeersTask(authenticator, stallingCache);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Optional<Peer>> lookup =
+                executor.submit(() -> stallingCache.authenticate(new BasicCredentials("foo", "secret1")));
+            checked.await();
+            Future<?> reload = executor.submit(() -> {
+                stallingTask.execute(ImmutableMultimap.of(), new PrintWriter(new StringWriter()));
+                return null;
+            });
+
+            // The reload has swapped in the rotated password, but waits for the lookup that checked the old one
+            try {
+                reload.get(200, TimeUnit.MILLISECONDS);
+                fail("Reload should wait for the lookup under way");
+            }
+            catch (TimeoutException e) {
+                // expected
+            }
+            release.countDown();
+            assertTrue(lookup.get().isPresent());
+            reload.get();
+
+            assertEquals(0, stallingCache.size());
+            assertFalse(stallingCache.authenticate(new BasicCredentials("foo", "secret1")).isPresent());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReloadReportsCertificates() throws Exception {
+        @SuppressWarnings("unchecked")
+        ReloadableAuthenticator<ClientCertificateCredentials> certificateAuthenticator =
+            createMock(ReloadableAuthenticator.class);
+        expect(certificateAuthenticator.reload()).andReturn(
+            new PeerIndexDiff(ImmutableSet.of(), ImmutableSet.of("baz"), ImmutableSet.of())).once();
+        replay(certificateAuthenticator);
+
+        StringWriter output = new StringWriter();
+        new ReloadAllowedPeersTask(authenticator, cachingAuthenticator, certificateAuthenticator)
+            .execute(ImmutableMultimap.of(), new PrintWriter(output));
+
+        assertTrue(output.toString().contains("changed: 1 [foo]"));
+        assertTrue(output.toString().contains("certificates removed: 1 [baz]"));
+        verify(certificateAuthenticator);
+    }
+
+    @Test
+    public void testReloadReadsPeerDAOOnceForBoth() throws Exception {
+        // A strict mock: neither authenticator may fetch for itself
+        PeerDAO peerDAO = createMock(PeerDAO.class);
+        expect(peerDAO.findAllowedPeers()).andReturn(new AllowedPeers(
+            ImmutableSet.of(new Peer("foo", "rotated"), new Peer("bar", "secret2")),
+            ImmutableMap.of("sha256:ab12", "foo"))).once();
+        replay(peerDAO);
+        AllowedPeerAuthenticator peerAuthenticator = new AllowedPeerAuthenticator(
+            peerDAO, ImmutableSet.of(new Peer("foo", "secret1"), new Peer("bar", "secret2")));
+        AllowedPeerCertificateAuthenticator certificateAuthenticator = new AllowedPeerCertificateAuthenticator(
+            peerDAO, ImmutableMap.of(), CacheBuilderSpec.parse("maximumSize=100"));
+
+        StringWriter output = new StringWriter();
+        new ReloadAllowedPeersTask(peerAuthenticator, null, certificateAuthenticator, peerDAO)
+            .execute(ImmutableMultimap.of(), new PrintWriter(output));
+
+        assertTrue(output.toString().contains("changed: 1 [foo]"));
+        assertTrue(output.toString().contains("certificates added: 1 [foo]"));
+        verify(peerDAO);
+    }
+
+    private static DrainingCachingAuthenticator<BasicCredentials> caching(
+            Authenticator<BasicCredentials, Peer> authenticator) {
+        return new DrainingCachingAuthenticator<>(new CachingAuthenticator<>(
+            new MetricRegistry(), authenticator, CacheBuilderSpec.parse("maximumSize=100")));
+    }
+}
@@ -3,8 +3,11 @@ package com.getupside.dw.auth.dao;
 import com.amazonaws.services.secretsmanager.AWSSecretsManager;
 import com.amazonaws.services.secretsmanager.model.GetSecretValueRequest;
 import com.amazonaws.services.secretsmanager.model.GetSecretValueResult;
+import com.getupside.dw.auth.model.AllowedPeers;
 import com.getupside.dw.auth.model.Peer;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -16,6 +19,7 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 
+import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
@@ -111,4 +115,48 @@ public class TestAWSSecretsManagerPeerDAO {
         // the test is that the dao constructor doesn't throw an exception when constructed
         // with a null client because all secretCoordinates start with "mock:/"
     }
+
+    @Test
+    public void testCertificateFingerprintsAreNotPasswords() {
+        Collection<String> secretCoordinates = ImmutableList.of("mock:/fake_allowed_peers_with_certificates.json");
+        AWSSecretsManagerPeerDAO dao = new AWSSecretsManagerPeerDAO(this.secretsManagerClient, secretCoordinates, true);
+
+        Set<Peer> peers = dao.findAll();
+        assertEquals(1, peers.size());
+        assertTrue(peers.contains(new Peer("mock_user", "some_secret")));
+
+        Map<String, String> fingerprints = dao.findAllCertificateFingerprints();
+        assertEquals(2, fingerprints.size());
+        assertEquals("cert_user", fingerprints.get("sha256:abcdef01"));
+        assertEquals("spki_user", fingerprints.get("spki-sha256:abcdef02"));
+    }
+
+    @Test
+    public void testFingerprintsArePasswordsWithoutClientCertificates() {
+        Collection<String> secretCoordinates = ImmutableList.of("mock:/fake_allowed_peers_with_certificates.json");
+        AWSSecretsManagerPeerDAO dao = new AWSSecretsManagerPeerDAO(this.secretsManagerClient, secretCoordinates);
+
+        Set<Peer> peers = dao.findAll();
+        assertEquals(3, peers.size());
+        assertTrue(peers.contains(new Peer("cert_user", "sha256:AB:CD:EF:01")));
+        assertTrue(dao.findAllCertificateFingerprints().isEmpty());
+    }
+
+    @Test
+    public void testFindAllowedPeersReadsSecretsOnce() {
+        GetSecretValueRequest request = new GetSecretValueRequest().withSecretId("foo/secret");
+        GetSecretValueResult result = new GetSecretValueResult()
+            .withSecretString("{\"foo\":\"secret1\",\"cert_user\":\"sha256:AB:CD:EF:01\"}");
+        // A strict mock, so a second read fails rather than returning null
+        AWSSecretsManager client = createMock(AWSSecretsManager.class);
+        expect(client.getSecretValue(request)).andReturn(result).once();
+        replay(client);
+
+        AWSSecretsManagerPeerDAO dao = new AWSSecretsManagerPeerDAO(client, this.secretCoordinates, true);
+        AllowedPeers allowedPeers = dao.findAllowedPeers();
+
+        assertEquals(ImmutableSet.of(new Peer("foo", "secret1")), allowedPeers.getPeers());
+        assertEquals(ImmutableMap.of("sha256:abcdef01", "cert_user"), allowedPeers.getCertificateFingerprints());
+        verify(client);
+    }
 }
@@ -0,0 +1,91 @@
+package com.getupside.dw.auth.metrics;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.codahale.metrics.MetricRegistry;
+import com.getupside.dw.auth.AllowedPeerAuthenticator;
+import com.getupside.dw.auth.model.Peer;
+import com.google.common.collect.ImmutableSet;
+import io.dropwizard.auth.Authenticator;
+import io.dropwizard.auth.basic.BasicCredentials;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * <p>Micro benchmark of what timing adds to the peer lookup, comparing the bare AllowedPeerAuthenticator (which is what
+ * runs when timingSampleRate is 0) with TimedAuthenticator at a few sample rates.  Not part of the regular build; run
+ * it with:</p>
+ * <pre>
+ * mvn test -Dtest=BenchmarkTimedAuthenticator -Dbenchmark=true
+ * </pre>
+ */
+public class BenchmarkTimedAuthenticator {
+
+    private static final int WARMUP_ITERATIONS = 2_000_000;
+    private static final int ITERATIONS = 10_000_000;
+    // A sampled-out call may cost at most this much more than the bare lookup
+    private static final double MAX_UNSAMPLED_OVERHEAD_NANOS = 10;
+
+    private final BasicCredentials credentials = new BasicCredentials("peer_42", "secret_42");
+    private Authenticator<BasicCredentials, Peer> bare;
+
+    // Keeps the JIT from discarding the results
+    private int sink;
+
+    @Before
+    public void setUp() {
+        assumeTrue("Benchmarks only run with -Dbenchmark=true", Boolean.getBoolean("benchmark"));
+
+        // The test logback.xml logs at debug, which would otherwise dominate every lookup
+        ((Logger) LoggerFactory.getLogger(AllowedPeerAuthenticator.class)).setLevel(Level.INFO);
+
+        ImmutableSet.Builder<Peer> peers = ImmutableSet.builder();
+        for (int i = 0; i < 1000; i++) {
+            peers.add(new Peer("peer_" + i, "secret_" + i));
+        }
+        Set<Peer> allPeers = peers.build();
+        bare = new AllowedPeerAuthenticator(() -> allPeers);
+    }
+
+    @Test
+    public void benchmarkSampling() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        Authenticator<BasicCredentials, Peer> rarelySampled =
+            new TimedAuthenticator<>(bare, new PhaseTimer(metrics.timer("rare"), 0.0001));
+        Authenticator<BasicCredentials, Peer> onePercent =
+            new TimedAuthenticator<>(bare, new PhaseTimer(metrics.timer("one-percent"), 0.01));
+        Authenticator<BasicCredentials, Peer> always =
+            new TimedAuthenticator<>(bare, new PhaseTimer(metrics.timer("always"), 1));
+
+        double bareNanos = measure(bare);
+        double rareNanos = measure(rarelySampled);
+        System.out.printf("%-22s %8.1f ns/op%n", "untimed (rate 0)", bareNanos);
+        System.out.printf("%-22s %8.1f ns/op%n", "rate 0.0001", rareNanos);
+        System.out.printf("%-22s %8.1f ns/op%n", "rate 0.01", measure(onePercent));
+        System.out.printf("%-22s %8.1f ns/op%n", "rate 1", measure(always));
+
+        assertTrue(String.format("Sampled-out calls cost %.1f ns more than untimed ones", rareNanos - bareNanos),
+                   rareNanos - bareNanos < MAX_UNSAMPLED_OVERHEAD_NANOS);
+    }
+
+    private double measure(Authenticator<BasicCredentials, Peer> authenticator) throws Exception {
+        run(authenticator, WARMUP_ITERATIONS);
+        long start = System.nanoTime();
+        run(authenticator, ITERATIONS);
+        return (System.nanoTime() - start) / (double) ITERATIONS;
+    }
+
+    private void run(Authenticator<BasicCredentials, Peer> authenticator, int iterations) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            Optional<Peer> peer = authenticator.authenticate(this.credentials);
+            this.sink += peer.isPresent() ? 1 : 0;
+        }
+    }
+}
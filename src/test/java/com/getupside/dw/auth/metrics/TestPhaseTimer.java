@@ -0,0 +1,86 @@
+package com.getupside.dw.auth.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.getupside.dw.auth.model.Peer;
+import io.dropwizard.auth.AuthenticationException;
+import io.dropwizard.auth.Authenticator;
+import io.dropwizard.auth.basic.BasicCredentials;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * <p>Tests PhaseTimer samples the expected share of calls, and that the Timed decorators record into it</p>
+ */
+public class TestPhaseTimer {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private final Authenticator<BasicCredentials, Peer> authenticator =
+        credentials -> Optional.of(new Peer(credentials.getUsername(), credentials.getPassword()));
+
+    @Test
+    public void testFullSampleRateTimesEveryCall() throws AuthenticationException {
+        MetricRegistry metrics = new MetricRegistry();
+        TimedAuthenticator<BasicCredentials, Peer> timed =
+            new TimedAuthenticator<>(authenticator, PhaseTimer.create(metrics, "probe", 1));
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(timed.authenticate(new BasicCredentials("foo", "secret1")).isPresent());
+        }
+        assertEquals(100, metrics.timer(PhaseTimer.METRIC_PREFIX + ".probe").getCount());
+    }
+
+    @Test
+    public void testPartialSampleRateTimesSomeCalls() {
+        Timer timer = new Timer();
+        PhaseTimer phaseTimer = new PhaseTimer(timer, 0.1);
+
+        int sampled = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (phaseTimer.sample()) {
+                sampled++;
+            }
+        }
+        // Expect ~10000; a generous margin keeps this from ever flaking
+        assertTrue("sampled " + sampled, sampled > 8000 && sampled < 12000);
+    }
+
+    @Test
+    public void testHighSampleRateTimesThatShareOfCalls() {
+        PhaseTimer phaseTimer = new PhaseTimer(new Timer(), 0.7);
+
+        int sampled = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (phaseTimer.sample()) {
+                sampled++;
+            }
+        }
+        // Expect ~70000, not every call
+        assertTrue("sampled " + sampled, sampled > 68000 && sampled < 72000);
+    }
+
+    @Test
+    public void testTimedAuthorizer() {
+        MetricRegistry metrics = new MetricRegistry();
+        TimedAuthorizer<Peer> timed = new TimedAuthorizer<>((principal, role) -> true,
+                                                            PhaseTimer.create(metrics, "authorize", 1));
+
+        assertTrue(timed.authorize(new Peer("foo", "secret1"), "admin"));
+        assertEquals(1, metrics.timer(PhaseTimer.METRIC_PREFIX + ".authorize").getCount());
+    }
+
+    @Test
+    public void testZeroSampleRateIsRejected() {
+        expectedException.expect(IllegalArgumentException.class);
+        new PhaseTimer(new Timer(), 0);
+    }
+}
@@ -0,0 +1,96 @@
+package com.getupside.dw.auth.quota;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * <p>Tests the token bucket and concurrency limit of a single Peer</p>
+ */
+public class TestPeerQuota {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    @Test
+    public void testBurstThenSustainedRate() {
+        PeerQuota quota = new PeerQuota(quota(10, 3, 0), ticker);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(PeerQuota.ADMITTED, quota.tryAcquire());
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), quota.tryAcquire());
+
+        ticker.advance(100, TimeUnit.MILLISECONDS);
+        assertEquals(PeerQuota.ADMITTED, quota.tryAcquire());
+        assertTrue(quota.tryAcquire() > 0);
+    }
+
+    @Test
+    public void testIdlePeerOnlyBanksItsBurst() {
+        PeerQuota quota = new PeerQuota(quota(10, 2, 0), ticker);
+
+        ticker.advance(1, TimeUnit.HOURS);
+        assertEquals(PeerQuota.ADMITTED, quota.tryAcquire());
+        assertEquals(PeerQuota.ADMITTED, quota.tryAcquire());
+        assertTrue(quota.tryAcquire() > 0);
+    }
+
+    @Test
+    public void testConcurrencyLimit() {
+        PeerQuota quota = new PeerQuota(quota(0, 1, 2), ticker);
+
+        assertEquals(PeerQuota.ADMITTED, quota.tryAcquire());
+        assertEquals(PeerQuota.ADMITTED, quota.tryAcquire());
+        assertTrue(quota.tryAcquire() > 0);
+        assertEquals(2, quota.getInFlight());
+
+        quota.release();
+        assertEquals(PeerQuota.ADMITTED, quota.tryAcquire());
+    }
+
+    @Test
+    public void testRateLimitedRequestDoesNotHoldASlot() {
+        PeerQuota quota = new PeerQuota(quota(1, 1, 5), ticker);
+
+        assertEquals(PeerQuota.ADMITTED, quota.tryAcquire());
+        assertTrue(quota.tryAcquire() > 0);
+        assertEquals(1, quota.getInFlight());
+    }
+
+    @Test
+    public void testBadBurst() {
+        expectedException.expect(IllegalArgumentException.class);
+        new PeerQuota(quota(10, 0, 0), ticker);
+    }
+
+    static PeerQuotaConfiguration quota(double requestsPerSecond, int burst, int maxConcurrentRequests) {
+        PeerQuotaConfiguration configuration = new PeerQuotaConfiguration();
+        configuration.setRequestsPerSecond(requestsPerSecond);
+        configuration.setBurst(burst);
+        configuration.setMaxConcurrentRequests(maxConcurrentRequests);
+        return configuration;
+    }
+
+    static class FakeTicker extends Ticker {
+        private long nanos = 123456789L;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long duration, TimeUnit unit) {
+            nanos += unit.toNanos(duration);
+        }
+    }
+}
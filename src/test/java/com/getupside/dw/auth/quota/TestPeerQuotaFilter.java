@@ -0,0 +1,174 @@
+package com.getupside.dw.auth.quota;
+
+import com.codahale.metrics.MetricRegistry;
+import com.getupside.dw.auth.model.Peer;
+import com.google.common.collect.ImmutableMap;
+import io.dropwizard.testing.junit.ResourceTestRule;
+import org.easymock.Capture;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+
+import javax.annotation.Priority;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * <p>Tests the quota filter throttles Peers independently, and answers with 429 and Retry-After</p>
+ */
+public class TestPeerQuotaFilter {
+
+    // Without Dropwizard's default ExceptionMappers, an exception from a resource skips the response filters
+    @ClassRule
+    public static final ResourceTestRule RESOURCES = ResourceTestRule.builder()
+        .setRegisterDefaultExceptionMappers(false)
+        .addProvider(new AuthenticateAsBar())
+        .addProvider(new PeerQuotaFilter(ImmutableMap.of(), TestPeerQuota.quota(0, 1, 1), new MetricRegistry()))
+        .addResource(new QuotaResource())
+        .build();
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private MetricRegistry metrics;
+    private PeerQuotaFilter filter;
+
+    @Before
+    public void setUp() {
+        metrics = new MetricRegistry();
+        filter = new PeerQuotaFilter(ImmutableMap.of("foo", TestPeerQuota.quota(0.5, 1, 0)),
+                                     TestPeerQuota.quota(0, 1, 1), metrics, new TestPeerQuota.FakeTicker());
+    }
+
+    @Test
+    public void testPeerOverRateLimitGets429() {
+        Capture<Response> response = newCapture();
+        assertFalse(request("foo", response).hasCaptured());
+        assertTrue(request("foo", response).hasCaptured());
+
+        assertEquals(PeerQuotaFilter.TOO_MANY_REQUESTS, response.getValue().getStatus());
+        assertEquals(2L, response.getValue().getMetadata().getFirst("Retry-After"));
+        assertEquals(1, metrics.meter(PeerQuotaFilter.METRIC_PREFIX + ".foo.throttled").getCount());
+        assertEquals(0, metrics.meter(PeerQuotaFilter.METRIC_PREFIX + ".bar.throttled").getCount());
+    }
+
+    @Test
+    public void testDefaultQuotaReleasedWhenFinished() {
+        ContainerRequestContext first = createNiceMock(ContainerRequestContext.class);
+        expect(first.getSecurityContext()).andReturn(securityContext("bar")).anyTimes();
+        Capture<Object> admitted = newCapture();
+        first.setProperty(anyString(), capture(admitted));
+        replay(first);
+        filter.filter(first);
+
+        // bar may only have one request in progress
+        assertTrue(request("bar", newCapture()).hasCaptured());
+
+        ContainerRequest finished = createNiceMock(ContainerRequest.class);
+        expect(finished.getProperty(anyString())).andReturn(admitted.getValue()).anyTimes();
+        replay(finished);
+        RequestEvent event = createNiceMock(RequestEvent.class);
+        expect(event.getType()).andReturn(RequestEvent.Type.FINISHED).anyTimes();
+        expect(event.getContainerRequest()).andReturn(finished).anyTimes();
+        replay(event);
+        filter.onRequest(event).onEvent(event);
+
+        assertFalse(request("bar", newCapture()).hasCaptured());
+    }
+
+    @Test
+    public void testQuotaReleasedWhenResourceThrows() {
+        try {
+            RESOURCES.target("/quota/fail").request().get();
+            fail("The resource's exception should have reached the client");
+        }
+        catch (ProcessingException e) {
+            // expected: nothing mapped the resource's exception
+        }
+
+        // bar may only have one request in progress, so this is answered only if the failed one gave its slot back
+        assertEquals(200, RESOURCES.target("/quota").request().get().getStatus());
+        assertEquals(200, RESOURCES.target("/quota").request().get().getStatus());
+    }
+
+    @Test
+    public void testBadDefaultQuotaFailsConstruction() {
+        expectedException.expect(IllegalArgumentException.class);
+        new PeerQuotaFilter(ImmutableMap.of(), TestPeerQuota.quota(10, 0, 0), metrics);
+    }
+
+    @Test
+    public void testNullQuotasFailConstruction() {
+        expectedException.expect(NullPointerException.class);
+        new PeerQuotaFilter(null, TestPeerQuota.quota(10, 1, 0), metrics);
+    }
+
+    @Test
+    public void testUnauthenticatedRequestPassesThrough() {
+        ContainerRequestContext request = createNiceMock(ContainerRequestContext.class);
+        expect(request.getSecurityContext()).andReturn(createNiceMock(SecurityContext.class)).anyTimes();
+        replay(request);
+
+        filter.filter(request);
+        verify(request);
+    }
+
+    /**
+     * @return {@code response}, which has captured the abort response if the request was throttled
+     */
+    private Capture<Response> request(String username, Capture<Response> response) {
+        ContainerRequestContext request = createNiceMock(ContainerRequestContext.class);
+        expect(request.getSecurityContext()).andReturn(securityContext(username)).anyTimes();
+        request.abortWith(capture(response));
+        expectLastCall().anyTimes();
+        replay(request);
+
+        filter.filter(request);
+        return response;
+    }
+
+    @Path("/quota")
+    public static class QuotaResource {
+        @GET
+        public String succeed() {
+            return "ok";
+        }
+
+        @GET
+        @Path("/fail")
+        public String failing() {
+            throw new IllegalStateException("resource failed");
+        }
+    }
+
+    @Priority(Priorities.AUTHENTICATION)
+    public static class AuthenticateAsBar implements ContainerRequestFilter {
+        @Override
+        public void filter(ContainerRequestContext requestContext) {
+            requestContext.setSecurityContext(securityContext("bar"));
+        }
+    }
+
+    private static SecurityContext securityContext(String username) {
+        SecurityContext securityContext = createNiceMock(SecurityContext.class);
+        expect(securityContext.getUserPrincipal()).andReturn(new Peer(username, "secret")).anyTimes();
+        replay(securityContext);
+        return securityContext;
+    }
+}
@@ -0,0 +1,83 @@
+package com.getupside.dw.auth.shared;
+
+import com.getupside.dw.auth.model.Peer;
+import com.google.common.collect.ImmutableSet;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * <p>Tests Peers can be looked up in an encoded index</p>
+ */
+public class TestMappedPeerIndex {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private final Set<Peer> allPeers = ImmutableSet.of(new Peer("foo", "secret1"),
+                                                       new Peer("foo", "secret1b"),
+                                                       new Peer("bar", "secret2"),
+                                                       new Peer("b\u00e4z", "s\u00e9cret3"));
+
+    @Test
+    public void testLookups() {
+        MappedPeerIndex index = new MappedPeerIndex(MappedPeerIndex.encode(7, allPeers));
+
+        assertEquals(7, index.getVersion());
+        assertEquals(4, index.getPeerCount());
+        assertTrue(index.contains("foo", "secret1"));
+        assertTrue(index.contains("foo", "secret1b"));
+        assertTrue(index.contains("b\u00e4z", "s\u00e9cret3"));
+        assertFalse(index.contains("foo", "secret2"));
+        assertFalse(index.contains("fo", "secret1"));
+        assertFalse(index.contains("qux", "secret1"));
+    }
+
+    @Test
+    public void testLookupsMatchUtf8Encoding() {
+        // A supplementary character takes four bytes; an unpaired surrogate is stored as '?' by String.getBytes
+        MappedPeerIndex index = new MappedPeerIndex(MappedPeerIndex.encode(1, ImmutableSet.of(
+            new Peer("\ud83d\ude00", "\u0800\uffff"), new Peer("bad\ud800", "x\udc00"))));
+
+        assertTrue(index.contains("\ud83d\ude00", "\u0800\uffff"));
+        assertFalse(index.contains("\ud83d\ude00", "\u0800\ufffe"));
+        assertFalse(index.contains("\ud83d\ude00", "\u0800"));
+        assertTrue(index.contains("bad\ud800", "x\udc00"));
+        assertTrue(index.contains("bad\ud800", "x?"));
+    }
+
+    @Test
+    public void testManyPeers() {
+        ImmutableSet.Builder<Peer> peers = ImmutableSet.builder();
+        for (int i = 0; i < 5000; i++) {
+            peers.add(new Peer("peer_" + i, "secret_" + i));
+        }
+        MappedPeerIndex index = new MappedPeerIndex(MappedPeerIndex.encode(1, peers.build()));
+
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(index.contains("peer_" + i, "secret_" + i));
+        }
+        assertFalse(index.contains("peer_5000", "secret_5000"));
+        assertEquals(peers.build(), ImmutableSet.copyOf(index.peersByName().values()));
+    }
+
+    @Test
+    public void testEmptyIndex() {
+        MappedPeerIndex index = new MappedPeerIndex(MappedPeerIndex.encode(1, ImmutableSet.of()));
+        assertFalse(index.contains("foo", "secret1"));
+    }
+
+    @Test
+    public void testNotAnIndex() {
+        expectedException.expect(IllegalStateException.class);
+        new MappedPeerIndex(ByteBuffer.allocate(64));
+    }
+}
@@ -0,0 +1,170 @@
+package com.getupside.dw.auth.shared;
+
+import com.getupside.dw.auth.PeerIndexDiff;
+import com.getupside.dw.auth.dao.PeerDAO;
+import com.getupside.dw.auth.model.Peer;
+import com.google.common.collect.ImmutableSet;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Tests two SharedPeerStores on the same files elect one writer, share its peers, and fail over</p>
+ */
+public class TestSharedPeerStore {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private final AtomicReference<Set<Peer>> allPeers =
+        new AtomicReference<>(ImmutableSet.of(new Peer("foo", "secret1"), new Peer("bar", "secret2")));
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final PeerDAO peerDAO = () -> {
+        fetches.incrementAndGet();
+        return allPeers.get();
+    };
+
+    private SharedPeerStore first;
+    private SharedPeerStore second;
+
+    @Before
+    public void setUp() throws Exception {
+        // Whatever the umask, the folder must not be writable by others for the stores to use it
+        Files.setPosixFilePermissions(folder.getRoot().toPath(), PosixFilePermissions.fromString("rwx------"));
+        // A long election interval keeps the background ticks out of the way; the tests tick by hand
+        first = new SharedPeerStore(peerDAO, folder.getRoot().toPath(), "peers", 60000, 1000);
+        second = new SharedPeerStore(peerDAO, folder.getRoot().toPath(), "peers", 60000, 1000);
+        first.start();
+        second.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        first.stop();
+        second.stop();
+    }
+
+    @Test
+    public void testOnlyWriterFetches() {
+        assertTrue(first.isWriter());
+        assertFalse(second.isWriter());
+        assertEquals(1, fetches.get());
+
+        assertTrue(second.contains("foo", "secret1"));
+        assertFalse(second.contains("foo", "secret2"));
+    }
+
+    @Test
+    public void testReaderPicksUpNewVersion() {
+        AtomicInteger notified = new AtomicInteger();
+        second.addVersionListener(notified::incrementAndGet);
+        allPeers.set(ImmutableSet.of(new Peer("foo", "rotated"), new Peer("bar", "secret2")));
+
+        PeerIndexDiff diff = first.reload();
+        assertEquals(ImmutableSet.of("foo"), diff.getChanged());
+
+        assertTrue(second.contains("foo", "rotated"));
+        assertFalse(second.contains("foo", "secret1"));
+        second.tick();
+        assertEquals(1, notified.get());
+    }
+
+    @Test
+    public void testReaderCannotReload() {
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("not the writer");
+        second.reload();
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        AtomicInteger notified = new AtomicInteger();
+        second.addVersionListener(notified::incrementAndGet);
+        first.stop();
+        second.tick();
+
+        assertTrue(second.isWriter());
+        assertEquals(2, fetches.get());
+        assertTrue(second.contains("bar", "secret2"));
+        // The new writer's own cache may hold peers the old writer published, so it's told about its first version
+        assertEquals(1, notified.get());
+    }
+
+    @Test
+    public void testFailedPublishGivesUpWriterLock() throws Exception {
+        PeerDAO unavailable = () -> {
+            throw new IllegalStateException("unavailable");
+        };
+        SharedPeerStore failing = new SharedPeerStore(unavailable, folder.getRoot().toPath(), "other", 60000, 1000);
+        SharedPeerStore healthy = new SharedPeerStore(peerDAO, folder.getRoot().toPath(), "other", 60000, 1000);
+        try {
+            try {
+                failing.start();
+                fail("Started without publishing");
+            }
+            catch (IllegalStateException e) {
+                assertEquals("unavailable", e.getMessage());
+            }
+            assertFalse(failing.isWriter());
+
+            healthy.start();
+            assertTrue(healthy.isWriter());
+            assertTrue(healthy.contains("foo", "secret1"));
+        }
+        finally {
+            failing.stop();
+            healthy.stop();
+        }
+    }
+
+    @Test
+    public void testRejectsDirectoryWritableByOthers() throws Exception {
+        Path directory = folder.newFolder("shared").toPath();
+        Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwxrwxrwx"));
+        SharedPeerStore store = new SharedPeerStore(peerDAO, directory, "peers", 60000, 1000);
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("other users may write it");
+        try {
+            store.start();
+        }
+        finally {
+            store.stop();
+        }
+    }
+
+    @Test
+    public void testRejectsIndexWritableByOthers() throws Exception {
+        Files.setPosixFilePermissions(folder.getRoot().toPath().resolve("peers.idx"),
+                                      PosixFilePermissions.fromString("rw-rw-rw-"));
+        SharedPeerStore third = new SharedPeerStore(peerDAO, folder.getRoot().toPath(), "peers", 60000, 1000);
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("peers.idx");
+        try {
+            third.start();
+        }
+        finally {
+            third.stop();
+        }
+    }
+}